@@ -3,11 +3,15 @@ package org.xlsx.validator.controller;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.resteasy.annotations.providers.multipart.MultipartForm;
 import org.jboss.resteasy.plugins.providers.multipart.MultipartFormDataInput;
+import org.xlsx.validator.services.ResponseService;
 import org.xlsx.validator.utils.ResponseUtils;
 
 import javax.inject.Inject;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 
 @Path("/api/consolidation")
@@ -20,24 +24,40 @@ public class ConsolidationController {
 
     @GET
     @Path("/download/{fileName}")
-    @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public Response downloadTemplate(@PathParam("fileName") String fileName) {
-        return responseUtils.downloadFile(fileName, CONSOLIDATION_DIR);
+    @Produces({MediaType.APPLICATION_OCTET_STREAM, ResponseService.ZIP})
+    public Response downloadTemplate(@PathParam("fileName") String fileName, @QueryParam("zip") @DefaultValue("false") boolean zip,
+                                     @Context Request request, @Context HttpHeaders headers) {
+        return responseUtils.downloadConsolidatedFile(fileName, zip, request, headers);
     }
 
     @GET
     @Path("/list")
-    @Produces(MediaType.TEXT_PLAIN)
-    public Response listTemplates() {
-        return responseUtils.listFiles(CONSOLIDATION_DIR);
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response listTemplates(@QueryParam("offset") Integer offset, @QueryParam("limit") Integer limit) {
+        return responseUtils.listFiles(CONSOLIDATION_DIR, offset, limit);
+    }
+
+    @GET
+    @Path("/files")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response listFileEntries(@QueryParam("offset") Integer offset, @QueryParam("limit") Integer limit) {
+        return responseUtils.listFileEntries(CONSOLIDATION_DIR, offset, limit);
     }
 
     @POST
     @Path("/upload")
     @Consumes(MediaType.MULTIPART_FORM_DATA)
-    @Produces(MediaType.TEXT_PLAIN)
-    public Response uploadFilesForConsolidation(@MultipartForm MultipartFormDataInput input, @QueryParam("templateName") String templateName, @QueryParam("isMerged") Boolean isMerged) {
-        return responseUtils.consolidateFiles(input, templateName, isMerged);
+    @Produces({MediaType.TEXT_PLAIN, MediaType.APPLICATION_JSON})
+    public Response uploadFilesForConsolidation(@MultipartForm MultipartFormDataInput input, @QueryParam("templateName") String templateName,
+                                                @QueryParam("isMerged") Boolean isMerged, @QueryParam("async") @DefaultValue("false") boolean async) {
+        return responseUtils.consolidateFiles(input, templateName, isMerged, async);
+    }
+
+    @GET
+    @Path("/jobs/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getConsolidationJob(@PathParam("id") String id) {
+        return responseUtils.getConsolidationJob(id);
     }
 
     @DELETE
@@ -3,11 +3,15 @@ package org.xlsx.validator.controller;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.resteasy.annotations.providers.multipart.MultipartForm;
 import org.jboss.resteasy.plugins.providers.multipart.MultipartFormDataInput;
+import org.xlsx.validator.services.ResponseService;
 import org.xlsx.validator.utils.ResponseUtils;
 
 import javax.inject.Inject;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 
 @Path("/api/template")
@@ -21,15 +25,22 @@ public class TemplateController {
     @GET
     @Path("/download/{fileName}")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    public Response downloadTemplate(@PathParam("fileName") String fileName) {
-        return responseUtils.downloadFile(fileName, TEMPLATE_DIR);
+    public Response downloadTemplate(@PathParam("fileName") String fileName, @Context Request request, @Context HttpHeaders headers) {
+        return responseUtils.downloadFile(fileName, TEMPLATE_DIR, request, headers);
     }
 
     @GET
     @Path("/list")
-    @Produces(MediaType.TEXT_PLAIN)
-    public Response listTemplates() {
-        return responseUtils.listFiles(TEMPLATE_DIR);
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response listTemplates(@QueryParam("offset") Integer offset, @QueryParam("limit") Integer limit) {
+        return responseUtils.listFiles(TEMPLATE_DIR, offset, limit);
+    }
+
+    @GET
+    @Path("/files")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response listFileEntries(@QueryParam("offset") Integer offset, @QueryParam("limit") Integer limit) {
+        return responseUtils.listFileEntries(TEMPLATE_DIR, offset, limit);
     }
 
     @POST
@@ -40,6 +51,15 @@ public class TemplateController {
         return responseUtils.uploadFiles(TEMPLATE_DIR, input);
     }
 
+    @POST
+    @Path("/{fileName}/validate")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces({ResponseService.NDJSON, MediaType.TEXT_PLAIN})
+    public Response validateFiles(@MultipartForm MultipartFormDataInput input, @PathParam("fileName") String fileName,
+                                  @QueryParam("maxErrors") Integer maxErrors) {
+        return responseUtils.validateFiles(input, fileName, maxErrors);
+    }
+
     @DELETE
     @Path("/delete/{fileName}")
     @Produces(MediaType.TEXT_PLAIN)
@@ -0,0 +1,93 @@
+package org.xlsx.validator.models;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Status of a consolidation that runs in the background, serialized as is by the jobs endpoint.
+ */
+public class ConsolidationJob {
+
+    public enum Status {
+        QUEUED, RUNNING, SUCCEEDED, FAILED
+    }
+
+    private final String id;
+    private final String templateName;
+    private final Instant submittedAt = Instant.now();
+    private final AtomicLong rowsProcessed = new AtomicLong();
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant startedAt;
+    private volatile Instant finishedAt;
+    private volatile String error;
+    private volatile List<String> skippedFiles = List.of();
+
+    public ConsolidationJob(String id, String templateName) {
+        this.id = id;
+        this.templateName = templateName;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTemplateName() {
+        return templateName;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    // Rows of the uploaded files that have been parsed and validated so far
+    public long getRowsProcessed() {
+        return rowsProcessed.get();
+    }
+
+    // Uploaded files that were not merged because the same content was merged before
+    public List<String> getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public Instant getSubmittedAt() {
+        return submittedAt;
+    }
+
+    public Instant getStartedAt() {
+        return startedAt;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public AtomicLong rowsProcessedCounter() {
+        return rowsProcessed;
+    }
+
+    public boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+
+    public void started() {
+        startedAt = Instant.now();
+        status = Status.RUNNING;
+    }
+
+    public void succeeded(List<String> skippedFiles) {
+        this.skippedFiles = skippedFiles;
+        finishedAt = Instant.now();
+        status = Status.SUCCEEDED;
+    }
+
+    public void failed(String error) {
+        this.error = error;
+        finishedAt = Instant.now();
+        status = Status.FAILED;
+    }
+}
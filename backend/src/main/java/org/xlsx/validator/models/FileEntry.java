@@ -0,0 +1,60 @@
+package org.xlsx.validator.models;
+
+import java.util.Objects;
+
+/**
+ * Metadata of a template or consolidated file as kept by the directory index.
+ * Size, content hash and row count are null while they are not known yet, e.g. when the row count is still being
+ * counted or when a consolidated file has rows that were not written out to the workbook yet.
+ */
+public class FileEntry {
+
+    private final String name;
+    private final Long size;
+    private final long lastModified;
+    private final Long rowCount;
+    private final String contentHash;
+
+    public FileEntry(String name, Long size, long lastModified, Long rowCount, String contentHash) {
+        this.name = name;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.rowCount = rowCount;
+        this.contentHash = contentHash;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    // Rows below the header row of the first sheet
+    public Long getRowCount() {
+        return rowCount;
+    }
+
+    // Hex encoded SHA-256 of the file content
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    // True if both entries describe the same version of the file
+    public boolean isSameVersion(FileEntry other) {
+        return other != null && Objects.equals(size, other.size) && lastModified == other.lastModified;
+    }
+
+    public FileEntry withRowCount(Long rowCount) {
+        return new FileEntry(name, size, lastModified, rowCount, contentHash);
+    }
+
+    public FileEntry withContentHash(String contentHash) {
+        return new FileEntry(name, size, lastModified, rowCount, contentHash);
+    }
+}
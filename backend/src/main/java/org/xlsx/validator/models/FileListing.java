@@ -0,0 +1,37 @@
+package org.xlsx.validator.models;
+
+import java.util.List;
+
+/**
+ * One page of a directory listing, sorted by file name.
+ */
+public class FileListing {
+
+    private final int total;
+    private final int offset;
+    private final int limit;
+    private final List<FileEntry> files;
+
+    public FileListing(int total, int offset, int limit, List<FileEntry> files) {
+        this.total = total;
+        this.offset = offset;
+        this.limit = limit;
+        this.files = files;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public List<FileEntry> getFiles() {
+        return files;
+    }
+}
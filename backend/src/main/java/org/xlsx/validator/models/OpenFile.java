@@ -0,0 +1,62 @@
+package org.xlsx.validator.models;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file that was opened for download along with its size and modification time. Files are replaced with a move, so
+ * the channel keeps reading the content it was opened with even if the file is rewritten or deleted meanwhile.
+ */
+public class OpenFile implements Closeable {
+
+    private final String name;
+    private final FileChannel channel;
+    private final long size;
+    private final long lastModified;
+
+    private OpenFile(String name, FileChannel channel, long size, long lastModified) {
+        this.name = name;
+        this.channel = channel;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public static OpenFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new OpenFile(path.getFileName().toString(), channel, channel.size(), Files.getLastModifiedTime(path).toMillis());
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing was written through the channel
+        }
+    }
+}
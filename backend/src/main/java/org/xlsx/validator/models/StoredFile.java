@@ -0,0 +1,64 @@
+package org.xlsx.validator.models;
+
+import java.io.File;
+
+public class StoredFile {
+
+    private final String name;
+    private final File file;
+    private final byte[] content;
+    private final long size;
+    private final String contentHash;
+
+    public StoredFile(File file, long size, String contentHash) {
+        this(file.getName(), file, size, contentHash);
+    }
+
+    public StoredFile(String name, File file, long size, String contentHash) {
+        this.name = name;
+        this.file = file;
+        this.content = null;
+        this.size = size;
+        this.contentHash = contentHash;
+    }
+
+    // A small upload that was kept in memory and never written to disk
+    public StoredFile(String name, byte[] content, String contentHash) {
+        this.name = name;
+        this.file = null;
+        this.content = content;
+        this.size = content.length;
+        this.contentHash = contentHash;
+    }
+
+    // The name the file was uploaded with, which can differ from the name it is stored under
+    public String getName() {
+        return name;
+    }
+
+    public boolean isInMemory() {
+        return content != null;
+    }
+
+    // Null for files that are kept in memory
+    public File getFile() {
+        return file;
+    }
+
+    public String getPath() {
+        return file != null ? file.getAbsolutePath() : null;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    // Hex encoded SHA-256 of the file content
+    public String getContentHash() {
+        return contentHash;
+    }
+}
@@ -0,0 +1,51 @@
+package org.xlsx.validator.models;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * Closing line of the validation report of one uploaded file.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ValidationSummary {
+
+    private final String file;
+    private final long rows;
+    private final long violations;
+    private final boolean truncated;
+    private final String error;
+
+    public ValidationSummary(String file, long rows, long violations, boolean truncated, String error) {
+        this.file = file;
+        this.rows = rows;
+        this.violations = violations;
+        this.truncated = truncated;
+        this.error = error;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    // Data rows checked, rows after the violation limit was reached are not counted
+    public long getRows() {
+        return rows;
+    }
+
+    public long getViolations() {
+        return violations;
+    }
+
+    // True if the check stopped at the violation limit, the file may contain more violations
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    // Set if the file could not be read, e.g. because it is not a valid workbook
+    public String getError() {
+        return error;
+    }
+
+    public boolean isValid() {
+        return violations == 0 && !truncated && error == null;
+    }
+}
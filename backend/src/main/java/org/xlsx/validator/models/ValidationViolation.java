@@ -0,0 +1,43 @@
+package org.xlsx.validator.models;
+
+/**
+ * A cell of an uploaded file that failed the header check or a data validation of the template,
+ * serialized as one line of the validation report.
+ */
+public class ValidationViolation {
+
+    private final String file;
+    private final String sheet;
+    private final String cell;
+    private final String rule;
+    private final String value;
+
+    public ValidationViolation(String file, String sheet, String cell, String rule, String value) {
+        this.file = file;
+        this.sheet = sheet;
+        this.cell = cell;
+        this.rule = rule;
+        this.value = value;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public String getSheet() {
+        return sheet;
+    }
+
+    // A1 style reference
+    public String getCell() {
+        return cell;
+    }
+
+    public String getRule() {
+        return rule;
+    }
+
+    public String getValue() {
+        return value;
+    }
+}
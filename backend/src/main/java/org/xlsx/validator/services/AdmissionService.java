@@ -0,0 +1,138 @@
+package org.xlsx.validator.services;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.xlsx.validator.models.StoredFile;
+import org.xlsx.validator.streaming.WorkbookInspection;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides from the zip central directory of the uploaded files whether a consolidation may run.
+ * Files that look like zip bombs or could never fit are rejected up front. Every other consolidation reserves its
+ * estimated memory from a global budget, waiting in line while the budget is used up by others.
+ */
+@Singleton
+public class AdmissionService {
+
+    private static final long MB = 1024 * 1024;
+    // Heap needed to parse a content file apart from the parts loaded into memory: parser, buffers and spool
+    private static final long FILE_BASE_COST = 4 * MB;
+    // Shared strings are held as Java strings, styles as POI objects, both take several times their XML size
+    private static final int SHARED_STRINGS_FACTOR = 3;
+    private static final int STYLES_FACTOR = 10;
+
+    @ConfigProperty(name = "admission.memory-budget", defaultValue = "0")
+    long MEMORY_BUDGET;
+    @ConfigProperty(name = "admission.queue-timeout-ms", defaultValue = "30000")
+    long QUEUE_TIMEOUT_MS;
+    @ConfigProperty(name = "admission.max-entries", defaultValue = "1000")
+    int MAX_ENTRIES;
+    @ConfigProperty(name = "admission.max-uncompressed-size", defaultValue = "1073741824")
+    long MAX_UNCOMPRESSED_SIZE;
+    @ConfigProperty(name = "admission.max-compression-ratio", defaultValue = "100")
+    double MAX_COMPRESSION_RATIO;
+    @Inject
+    ConsolidationMetrics metrics;
+
+    // One permit per KB, a fair semaphore admits waiting consolidations in arrival order so large ones are not starved
+    private Semaphore budget;
+    private int budgetKb;
+
+    @PostConstruct
+    void init() {
+        // 0 uses half of the maximum heap
+        long budgetBytes = MEMORY_BUDGET > 0 ? MEMORY_BUDGET : Runtime.getRuntime().maxMemory() / 2;
+        budgetKb = (int) Math.min(Integer.MAX_VALUE, budgetBytes / 1024);
+        budget = new Semaphore(budgetKb, true);
+        metrics.registerMemoryBudget(budgetKb * 1024L, this::getReservedBytes);
+    }
+
+    // Returns the estimated memory needed to parse the files, throws an IllegalArgumentException for files that are not
+    // valid workbooks and a TooLargeException for files that are rejected for their size
+    public long inspect(List<StoredFile> contentFiles) throws IOException {
+        long estimate = 0;
+        for (StoredFile contentFile : contentFiles) {
+            String fileName = contentFile.getName();
+            WorkbookInspection inspection;
+            try {
+                inspection = contentFile.isInMemory()
+                        ? WorkbookInspection.inspect(contentFile.getContent())
+                        : WorkbookInspection.inspect(contentFile.getFile().toPath());
+            } catch (IOException e) {
+                metrics.admissionRejected("format");
+                throw new IllegalArgumentException("File '" + fileName + "' is not a valid '.xlsx' file!");
+            }
+            if (inspection.getEntryCount() > MAX_ENTRIES) {
+                throw reject("entries", "File '" + fileName + "' contains " + inspection.getEntryCount() + " entries, at most " + MAX_ENTRIES + " are allowed!");
+            }
+            if (inspection.getUncompressedSize() > MAX_UNCOMPRESSED_SIZE) {
+                throw reject("size", "File '" + fileName + "' expands to " + inspection.getUncompressedSize() / MB + " MB, at most " + MAX_UNCOMPRESSED_SIZE / MB + " MB are allowed!");
+            }
+            if (inspection.getMaxCompressionRatio() > MAX_COMPRESSION_RATIO) {
+                throw reject("ratio", "File '" + fileName + "' is compressed more than " + (long) MAX_COMPRESSION_RATIO + " times and was rejected as a possible zip bomb!");
+            }
+            estimate += FILE_BASE_COST + SHARED_STRINGS_FACTOR * inspection.getSharedStringsSize() + STYLES_FACTOR * inspection.getStylesSize();
+        }
+        if (estimate / 1024 > budgetKb) {
+            throw reject("budget", "Files need an estimated " + estimate / MB + " MB to be processed, more than the memory budget of " + budgetKb / 1024 + " MB!");
+        }
+        return estimate;
+    }
+
+    // Blocks until the memory estimated by inspect is available, throws a RejectedExecutionException if that takes too long
+    public Reservation admit(long estimate) throws InterruptedException {
+        int permits = (int) Math.max(1, Math.min(budgetKb, (estimate + 1023) / 1024));
+        if (!budget.tryAcquire(permits, QUEUE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            metrics.admissionRejected("timeout");
+            throw new RejectedExecutionException("Not enough memory to process the files, try again later");
+        }
+        return new Reservation(permits);
+    }
+
+    // Bytes of the budget that are reserved by running consolidations
+    public long getReservedBytes() {
+        return (budgetKb - (long) budget.availablePermits()) * 1024;
+    }
+
+    private TooLargeException reject(String reason, String message) {
+        metrics.admissionRejected(reason);
+        return new TooLargeException(message);
+    }
+
+    /**
+     * Thrown for files that are valid workbooks but too large or too compressed to be processed.
+     */
+    public static final class TooLargeException extends IllegalArgumentException {
+
+        private TooLargeException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Memory reserved for one consolidation, given back to the budget on close.
+     */
+    public final class Reservation implements AutoCloseable {
+
+        private int permits;
+
+        private Reservation(int permits) {
+            this.permits = permits;
+        }
+
+        @Override
+        public void close() {
+            if (permits > 0) {
+                budget.release(permits);
+                permits = 0;
+            }
+        }
+    }
+}
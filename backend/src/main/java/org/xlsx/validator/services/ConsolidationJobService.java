@@ -0,0 +1,94 @@
+package org.xlsx.validator.services;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.xlsx.validator.models.ConsolidationJob;
+import org.xlsx.validator.models.StoredFile;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs consolidations in the background on a bounded pool.
+ * Submissions beyond the queue size are rejected with a {@link RejectedExecutionException}
+ * instead of piling up, and finished jobs are kept for a while so that their status can be polled.
+ */
+@Singleton
+public class ConsolidationJobService {
+
+    private static final Logger LOG = Logger.getLogger(ConsolidationJobService.class);
+    @ConfigProperty(name = "consolidation.jobs.workers", defaultValue = "2")
+    int WORKERS;
+    @ConfigProperty(name = "consolidation.jobs.queue-size", defaultValue = "16")
+    int QUEUE_SIZE;
+    @ConfigProperty(name = "consolidation.jobs.retention-minutes", defaultValue = "60")
+    long RETENTION_MINUTES;
+    @Inject
+    ConsolidationService consolidationService;
+
+    private final Map<String, ConsolidationJob> jobs = new ConcurrentHashMap<>();
+    private ThreadPoolExecutor jobPool;
+
+    @PostConstruct
+    void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        jobPool = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+            Thread thread = new Thread(runnable, "consolidation-job-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        jobPool.shutdownNow();
+    }
+
+    // The cleanup runs once the job is finished, a rejected job is neither run nor cleaned up
+    public ConsolidationJob submit(File templateFile, String consolidatedFilename, List<StoredFile> contentFiles, boolean isMerged, long memoryEstimate, Runnable cleanup) {
+        removeExpiredJobs();
+        ConsolidationJob job = new ConsolidationJob(UUID.randomUUID().toString(), templateFile.getName());
+        jobs.put(job.getId(), job);
+        try {
+            jobPool.execute(() -> {
+                job.started();
+                try {
+                    job.succeeded(consolidationService.consolidate(templateFile, consolidatedFilename, contentFiles, isMerged, memoryEstimate, job.rowsProcessedCounter()));
+                } catch (Exception e) {
+                    LOG.errorf(e, "Consolidation job %s failed", job.getId());
+                    job.failed(StringUtils.isNotEmpty(e.getMessage()) ? e.getMessage() : String.valueOf(e.getCause()));
+                } finally {
+                    cleanup.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            throw new RejectedExecutionException("Too many consolidations in progress, try again later", e);
+        }
+        return job;
+    }
+
+    public ConsolidationJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    private void removeExpiredJobs() {
+        Instant expiry = Instant.now().minus(Duration.ofMinutes(RETENTION_MINUTES));
+        jobs.values().removeIf(job -> job.isFinished() && job.getFinishedAt().isBefore(expiry));
+    }
+}
@@ -0,0 +1,165 @@
+package org.xlsx.validator.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Micrometer meters and OpenTelemetry spans for the stages of a consolidation.
+ * Every stage is recorded in the {@code consolidation.stage} timer tagged with the stage and the template,
+ * stages that run in one piece are also traced as a {@code consolidation.<stage>} span.
+ */
+@Singleton
+public class ConsolidationMetrics {
+
+    public static final String UPLOAD = "upload";
+    public static final String TEMPLATE_LOAD = "template.load";
+    public static final String PARSE = "parse";
+    public static final String HEADER_CHECK = "header.check";
+    public static final String VALIDATION = "validation";
+    public static final String ROW_COPY = "row.copy";
+    public static final String LOG_COMMIT = "log.commit";
+    public static final String WORKBOOK_WRITE = "workbook.write";
+
+    @ConfigProperty(name = "temp.directory")
+    String TEMP_DIR;
+    @Inject
+    MeterRegistry registry;
+    @Inject
+    Tracer tracer;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    @PostConstruct
+    void init() {
+        Gauge.builder("consolidation.in.flight", inFlight, AtomicInteger::get)
+                .description("Consolidations waiting for or holding the lock of their template")
+                .register(registry);
+        Gauge.builder("consolidation.temp.dir.usage", this, ConsolidationMetrics::getTempDirUsage)
+                .description("Bytes in files under the temp directory and the request workspaces in it")
+                .baseUnit("bytes")
+                .register(registry);
+    }
+
+    public <T> T time(String stage, String template, Callable<T> callable) throws Exception {
+        Span span = tracer.spanBuilder("consolidation." + stage).setAttribute("template", template).startSpan();
+        long start = System.nanoTime();
+        try (Scope scope = span.makeCurrent()) {
+            return callable.call();
+        } catch (Exception e) {
+            span.recordException(e);
+            span.setStatus(StatusCode.ERROR);
+            throw e;
+        } finally {
+            record(stage, template, System.nanoTime() - start);
+            span.end();
+        }
+    }
+
+    // For stages interleaved with others row by row, where only the summed time is known
+    public void record(String stage, String template, long nanos) {
+        Timer.builder("consolidation.stage")
+                .tag("stage", stage)
+                .tag("template", template)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        Span.current().setAttribute("consolidation." + stage + ".nanos", nanos);
+    }
+
+    // Rows and bytes are counters, so their per second rates come from the registry's rate function
+    public void recordContentFile(String template, long bytes, long rows) {
+        DistributionSummary.builder("consolidation.file.size").baseUnit("bytes").publishPercentileHistogram().register(registry).record(bytes);
+        DistributionSummary.builder("consolidation.file.rows").baseUnit("rows").publishPercentileHistogram().register(registry).record(rows);
+        Counter.builder("consolidation.bytes").baseUnit("bytes").tag("template", template).register(registry).increment(bytes);
+        Counter.builder("consolidation.rows").baseUnit("rows").tag("template", template).register(registry).increment(rows);
+    }
+
+    // Reason is either "headers" or "rows"
+    public void validationFailed(String template, String reason) {
+        Counter.builder("consolidation.validation.failures")
+                .tag("template", template)
+                .tag("reason", reason)
+                .register(registry)
+                .increment();
+    }
+
+    // Content files left out because the same content was merged before
+    public void filesSkipped(String template, long count) {
+        Counter.builder("consolidation.files.skipped").tag("template", template).register(registry).increment(count);
+    }
+
+    // Rows left out because their key column repeats an earlier row
+    public void rowsDeduplicated(String template, long count) {
+        Counter.builder("consolidation.rows.deduplicated").baseUnit("rows").tag("template", template).register(registry).increment(count);
+    }
+
+    public void registerMemoryBudget(long budgetBytes, Supplier<Number> reservedBytes) {
+        Gauge.builder("consolidation.memory.budget", () -> budgetBytes).baseUnit("bytes").register(registry);
+        Gauge.builder("consolidation.memory.reserved", reservedBytes).baseUnit("bytes")
+                .description("Estimated memory reserved by admitted consolidations")
+                .register(registry);
+    }
+
+    // Reason is "timeout" when the budget stayed used up, otherwise the check the files failed
+    public void admissionRejected(String reason) {
+        Counter.builder("consolidation.admission.rejected").tag("reason", reason).register(registry).increment();
+    }
+
+    public void consolidationStarted() {
+        inFlight.incrementAndGet();
+    }
+
+    public void consolidationFinished() {
+        inFlight.decrementAndGet();
+    }
+
+    private double getTempDirUsage() {
+        try {
+            return getUsage(WorkspaceService.getProcessDir(TEMP_DIR), true);
+        } catch (IOException | UncheckedIOException e) {
+            return Double.NaN;
+        }
+    }
+
+    // Counts the request workspaces and row spools in the directory of this process
+    private static long getUsage(Path dir, boolean topLevel) throws IOException {
+        long usage = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (!topLevel || name.startsWith(WorkspaceService.SPOOL_PREFIX)) {
+                    if (Files.isRegularFile(file)) {
+                        usage += file.toFile().length();
+                    }
+                } else if (name.startsWith(WorkspaceService.WORKSPACE_PREFIX) && Files.isDirectory(file)) {
+                    usage += getUsage(file, false);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // A workspace that was deleted while it was being listed, or no file was put into the temp directory yet
+        }
+        return usage;
+    }
+}
@@ -0,0 +1,483 @@
+package org.xlsx.validator.services;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.xlsx.validator.models.OpenFile;
+import org.xlsx.validator.models.StoredFile;
+import org.xlsx.validator.streaming.RowHandler;
+import org.xlsx.validator.streaming.RowKeySet;
+import org.xlsx.validator.streaming.RowLog;
+import org.xlsx.validator.streaming.SpooledFiles;
+import org.xlsx.validator.validation.TemplateMetadata;
+
+import javax.annotation.PostConstruct;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Serializes the writes to each consolidated file.
+ * Requests for the same consolidated file queue up behind a striped lock, and whichever request takes the lock
+ * commits every request queued so far in one pass, so the row log is appended to once per group.
+ * The consolidated workbook itself is only written out from the row log when it is downloaded, split into
+ * {@code Consolidated-<template>-partN.xlsx} files when it exceeds the configured rows or bytes per file.
+ * Content files are identified by the hash computed while they were uploaded, a file that was merged before is skipped.
+ */
+@Singleton
+public class ConsolidationService {
+
+    @ConfigProperty(name = "consolidation.directory")
+    String CONSOLIDATION_DIR;
+    @ConfigProperty(name = "consolidation.group-commit.window-ms", defaultValue = "20")
+    long GROUP_COMMIT_WINDOW_MS;
+    @ConfigProperty(name = "consolidation.lock-stripes", defaultValue = "64")
+    int LOCK_STRIPES;
+    @ConfigProperty(name = "consolidation.dedup.key-column")
+    Optional<String> DEDUP_KEY_COLUMN;
+    @ConfigProperty(name = "consolidation.shard.file-rows", defaultValue = "0")
+    long FILE_ROWS;
+    @ConfigProperty(name = "consolidation.shard.file-bytes", defaultValue = "0")
+    long FILE_BYTES;
+    @Inject
+    XlsxService xlsxService;
+    @Inject
+    TemplateCacheService templateCacheService;
+    @Inject
+    ConsolidationStateService consolidationStateService;
+    @Inject
+    ConsolidationMetrics metrics;
+    @Inject
+    DirectoryIndexService directoryIndex;
+    @Inject
+    AdmissionService admissionService;
+
+    static final String LOG_DIR = ".log";
+    private static final String CONSOLIDATED_PREFIX = "Consolidated-";
+    private static final String EXTENSION = ".xlsx";
+    private static final Pattern PART_NAME = Pattern.compile("(.+)-part\\d+\\.xlsx");
+    private static final int ROW_KEYS_CACHE_SIZE = 16;
+    private final ConcurrentHashMap<String, Queue<PendingConsolidation>> queues = new ConcurrentHashMap<>();
+    // Row keys of the most recently consolidated files, only used when a key column is configured
+    private final Map<String, RowKeys> rowKeys = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, RowKeys> eldest) {
+            return size() > ROW_KEYS_CACHE_SIZE;
+        }
+    };
+    private ReentrantLock[] locks;
+
+    @PostConstruct
+    void init() {
+        locks = new ReentrantLock[Math.max(1, LOCK_STRIPES)];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public List<String> consolidate(File templateFile, String consolidatedFilename, List<StoredFile> contentFiles, boolean isMerged, long memoryEstimate) throws Exception {
+        return consolidate(templateFile, consolidatedFilename, contentFiles, isMerged, memoryEstimate, new AtomicLong());
+    }
+
+    // The memory estimate is the one AdmissionService.inspect returned for the content files
+    // Rows processed counts the rows of the content files that have been parsed and validated
+    // Returns the names of the files that were skipped because the same content was merged before
+    public List<String> consolidate(File templateFile, String consolidatedFilename, List<StoredFile> contentFiles, boolean isMerged, long memoryEstimate, AtomicLong rowsProcessed) throws Exception {
+        // Waits until the estimated memory for parsing the files fits into the budget
+        try (AdmissionService.Reservation reservation = admissionService.admit(memoryEstimate)) {
+            metrics.consolidationStarted();
+            try {
+                return commit(templateFile, consolidatedFilename, new PendingConsolidation(contentFiles, isMerged, rowsProcessed));
+            } finally {
+                metrics.consolidationFinished();
+            }
+        }
+    }
+
+    private List<String> commit(File templateFile, String consolidatedFilename, PendingConsolidation pending) throws Exception {
+        Queue<PendingConsolidation> queue = queues.computeIfAbsent(consolidatedFilename, key -> new ConcurrentLinkedQueue<>());
+        queue.add(pending);
+
+        // Wait outside the lock, so that other files on the same stripe are not held up by the window
+        if (!waitForGroup(pending)) {
+            ReentrantLock lock = getLock(consolidatedFilename);
+            lock.lock();
+            try {
+                // A previous group may already have committed this request while it waited for the lock
+                if (!pending.result.isDone()) {
+                    List<PendingConsolidation> group = new ArrayList<>();
+                    PendingConsolidation next;
+                    while ((next = queue.poll()) != null) {
+                        group.add(next);
+                    }
+                    // A request that still adds to the removed queue drains it itself once it holds the lock
+                    if (queue.isEmpty()) {
+                        queues.remove(consolidatedFilename, queue);
+                    }
+                    commitGroup(templateFile, consolidatedFilename, group);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        try {
+            return pending.result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    // Give requests arriving right behind this one a chance to join its group
+    // Returns true if another request committed this one in its group meanwhile
+    private boolean waitForGroup(PendingConsolidation pending) {
+        if (GROUP_COMMIT_WINDOW_MS <= 0) {
+            return pending.result.isDone();
+        }
+        try {
+            pending.result.get(GROUP_COMMIT_WINDOW_MS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Rethrown by the caller
+        }
+        return pending.result.isDone();
+    }
+
+    // Opens the workbooks of a consolidated file in row order, writing them out first if rows were appended since the last download
+    // The name of a part opens only that part, an unknown name opens no files. The caller closes the files.
+    public List<OpenFile> openConsolidatedFiles(String fileName) throws Exception {
+        String consolidatedFilename = getPartOf(fileName);
+        if (consolidatedFilename == null || RowLog.open(getLogPath(fileName)).exists() || !RowLog.open(getLogPath(consolidatedFilename)).exists()) {
+            return materialize(fileName, name -> true);
+        }
+        return materialize(consolidatedFilename, fileName::equals);
+    }
+
+    // The files are opened under the lock, so that all of them belong to the same generation of the row log
+    private List<OpenFile> materialize(String consolidatedFilename, Predicate<String> isOpened) throws Exception {
+        ReentrantLock lock = getLock(consolidatedFilename);
+        lock.lock();
+        try {
+            File consolidatedFile = Paths.get(CONSOLIDATION_DIR, consolidatedFilename).toFile();
+            RowLog rowLog = RowLog.open(getLogPath(consolidatedFilename));
+            if (!rowLog.exists()) {
+                return consolidatedFile.isFile() ? List.of(OpenFile.open(consolidatedFile.toPath())) : List.of();
+            }
+            Path consolidationDir = Paths.get(CONSOLIDATION_DIR);
+            if (!rowLog.isMaterialized(consolidationDir)) {
+                // A single file keeps the consolidated file's name, more than one are named as its parts
+                // Rows validated at their position are not split, they are written out where they were checked
+                List<RowLog.Range> ranges = rowLog.hasPositionalRules() ? rowLog.split(0, 0) : rowLog.split(FILE_ROWS, FILE_BYTES);
+                List<String> names = new ArrayList<>();
+                for (int i = 0; i < ranges.size(); i++) {
+                    names.add(ranges.size() == 1 ? consolidatedFilename : getPartName(consolidatedFilename, i + 1));
+                }
+                List<String> previousNames = rowLog.getMaterializedFiles();
+                metrics.time(ConsolidationMetrics.WORKBOOK_WRITE, StringUtils.removeStart(consolidatedFilename, CONSOLIDATED_PREFIX), () -> {
+                    xlsxService.writeConsolidatedFiles(rowLog, ranges, names.stream().map(consolidationDir::resolve).collect(Collectors.toList()));
+                    return null;
+                });
+                rowLog.setMaterialized(consolidationDir, names, ranges);
+                // Files of an earlier split that are not part of this one
+                Set<String> staleNames = new HashSet<>(previousNames);
+                staleNames.add(consolidatedFilename);
+                staleNames.removeAll(names);
+                for (String staleName : staleNames) {
+                    Files.deleteIfExists(consolidationDir.resolve(staleName));
+                }
+                directoryIndex.refresh(CONSOLIDATION_DIR, consolidatedFilename);
+                staleNames.forEach(name -> directoryIndex.refresh(CONSOLIDATION_DIR, name));
+                names.forEach(name -> directoryIndex.refresh(CONSOLIDATION_DIR, name));
+            }
+            List<OpenFile> files = new ArrayList<>();
+            try {
+                for (String name : rowLog.getMaterializedFiles()) {
+                    if (isOpened.test(name)) {
+                        files.add(OpenFile.open(consolidationDir.resolve(name)));
+                    }
+                }
+            } catch (IOException e) {
+                files.forEach(OpenFile::close);
+                throw e;
+            }
+            return files;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Consolidated files and their parts, which can share a directory with the templates
+    public static boolean isConsolidatedFile(String fileName) {
+        return fileName.startsWith(CONSOLIDATED_PREFIX);
+    }
+
+    static String getPartName(String consolidatedFilename, int part) {
+        return StringUtils.removeEnd(consolidatedFilename, EXTENSION) + "-part" + part + EXTENSION;
+    }
+
+    // The consolidated file the named file is a part of, null if the name is not that of a part
+    static String getPartOf(String fileName) {
+        Matcher matcher = PART_NAME.matcher(fileName);
+        return matcher.matches() ? matcher.group(1) + EXTENSION : null;
+    }
+
+    public boolean exists(String consolidatedFilename) throws IOException {
+        return Paths.get(CONSOLIDATION_DIR, consolidatedFilename).toFile().isFile()
+                || RowLog.open(getLogPath(consolidatedFilename)).exists();
+    }
+
+    // Returns false if there was nothing to delete
+    public boolean delete(String consolidatedFilename) throws IOException {
+        ReentrantLock lock = getLock(consolidatedFilename);
+        lock.lock();
+        try {
+            RowLog rowLog = RowLog.open(getLogPath(consolidatedFilename));
+            boolean logged = rowLog.exists();
+            List<String> partNames = rowLog.getMaterializedFiles();
+            if (logged) {
+                rowLog.delete();
+            }
+            for (String partName : partNames) {
+                if (!partName.equals(consolidatedFilename)) {
+                    Files.deleteIfExists(Paths.get(CONSOLIDATION_DIR, partName));
+                    directoryIndex.refresh(CONSOLIDATION_DIR, partName);
+                }
+            }
+            boolean deleted = Files.deleteIfExists(Paths.get(CONSOLIDATION_DIR, consolidatedFilename));
+            consolidationStateService.clear(consolidatedFilename);
+            directoryIndex.refresh(CONSOLIDATION_DIR, consolidatedFilename);
+            synchronized (rowKeys) {
+                rowKeys.remove(consolidatedFilename);
+            }
+            return logged || deleted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commitGroup(File templateFile, String consolidatedFilename, List<PendingConsolidation> group) {
+        List<SpooledFiles> spooledFiles = new ArrayList<>();
+        boolean committed = false;
+        try {
+            TemplateMetadata template = metrics.time(ConsolidationMetrics.TEMPLATE_LOAD, templateFile.getName(), () -> templateCacheService.getTemplate(templateFile));
+            File consolidatedFile = Paths.get(CONSOLIDATION_DIR, consolidatedFilename).toFile();
+            RowLog rowLog = RowLog.open(getLogPath(consolidatedFilename));
+            // Files whose content was merged before are skipped before they are parsed
+            Set<String> mergedHashes = rowLog.getContentHashes();
+            for (PendingConsolidation pending : group) {
+                pending.selectFiles(mergedHashes);
+                metrics.filesSkipped(template.getName(), pending.skippedFiles.size());
+            }
+            // Files of all requests in the group are parsed in parallel
+            for (PendingConsolidation pending : group) {
+                spooledFiles.add(xlsxService.spoolContentFiles(pending.getFiles(), template, pending.rowsProcessed));
+            }
+
+            RowKeySet keys = getRowKeys(consolidatedFilename, rowLog, template);
+            List<PendingConsolidation> appended = new ArrayList<>();
+            Set<String> appendedHashes = new HashSet<>();
+            // New rows are only added to the row log, the workbook is written out when it is downloaded
+            try (RowLog.Appender appender = rowLog.append()) {
+                long[] duplicateRows = {0};
+                RowHandler target = keys == null ? appender::append : row -> {
+                    if (keys.add(row)) {
+                        appender.append(row);
+                    } else {
+                        duplicateRows[0]++;
+                    }
+                };
+                boolean consolidatedFileExists = rowLog.exists();
+                if (!consolidatedFileExists && consolidatedFile.isFile()) {
+                    // A consolidated file from before the row log is carried over into the first segment
+                    int validatedRowNum = consolidationStateService.getValidatedRowNum(consolidatedFile);
+                    xlsxService.readConsolidatedFile(consolidatedFile.toPath(), template, validatedRowNum, target);
+                    consolidatedFileExists = true;
+                }
+                for (int i = 0; i < group.size(); i++) {
+                    PendingConsolidation pending = group.get(i);
+                    // A merge needs an existing consolidated file or an earlier request of the group that creates it
+                    if (pending.isMerged && !consolidatedFileExists && appended.isEmpty()) {
+                        pending.result.completeExceptionally(new RuntimeException("Unable to merge as consolidated file does not exist for template: " + template.getName()));
+                        continue;
+                    }
+                    int rowCount = appender.getRowCount();
+                    try {
+                        // Wait for the parsing outside of the timer, so that it only measures the append
+                        SpooledFiles pendingFiles = spooledFiles.get(i);
+                        pending.skipAppended(pendingFiles, appendedHashes);
+                        pendingFiles.await();
+                        metrics.time(ConsolidationMetrics.ROW_COPY, template.getName(), () -> {
+                            xlsxService.appendSpooledFiles(pendingFiles, template, template.getFirstDataRowNum() + rowCount, keys, target);
+                            return null;
+                        });
+                        appended.add(pending);
+                        appendedHashes.addAll(pending.getFileHashes());
+                    } catch (Exception e) {
+                        // Invalid files only fail their own request, unless some of their rows were already written
+                        if (appender.getRowCount() != rowCount) {
+                            throw e;
+                        }
+                        pending.result.completeExceptionally(e);
+                    }
+                }
+                if (!appended.isEmpty()) {
+                    // Requests whose files were all merged before leave the log as it is, so its workbooks stay current
+                    if (appender.getRowCount() != rowLog.getRowCount() || !appendedHashes.isEmpty()) {
+                        metrics.time(ConsolidationMetrics.LOG_COMMIT, template.getName(), () -> {
+                            appender.commit(template.getContent(), template.getContentHash(),
+                                    !template.getValidationRules().isUniformFrom(template.getFirstDataRowNum()), appendedHashes);
+                            return null;
+                        });
+                        consolidationStateService.clear(consolidatedFilename);
+                        directoryIndex.refresh(CONSOLIDATION_DIR, consolidatedFilename);
+                    }
+                    metrics.rowsDeduplicated(template.getName(), duplicateRows[0]);
+                    committed = true;
+                    if (keys != null) {
+                        synchronized (rowKeys) {
+                            rowKeys.put(consolidatedFilename, new RowKeys(rowLog.getGeneration(), keys));
+                        }
+                    }
+                }
+            }
+            appended.forEach(pending -> pending.result.complete(pending.getSkippedFileNames()));
+        } catch (Exception e) {
+            // Nothing was written, every request still pending fails with the same error
+            group.forEach(pending -> pending.result.completeExceptionally(e));
+        } finally {
+            if (!committed) {
+                // The keys may contain rows that were never committed
+                synchronized (rowKeys) {
+                    rowKeys.remove(consolidatedFilename);
+                }
+            }
+            spooledFiles.forEach(SpooledFiles::close);
+        }
+    }
+
+    // Keys of the rows in the log, kept from the previous commit or read once from the log, null without a key column
+    private RowKeySet getRowKeys(String consolidatedFilename, RowLog rowLog, TemplateMetadata template) throws IOException {
+        int keyColumn = DEDUP_KEY_COLUMN.map(header -> getColumn(template, header)).orElse(-1);
+        if (keyColumn < 0) {
+            return null;
+        }
+        RowKeys cached;
+        synchronized (rowKeys) {
+            cached = rowKeys.get(consolidatedFilename);
+        }
+        if (cached != null && cached.generation == rowLog.getGeneration() && cached.keys.getKeyColumn() == keyColumn) {
+            return cached.keys;
+        }
+        RowKeySet keys = new RowKeySet(keyColumn);
+        if (rowLog.exists()) {
+            rowLog.replay(keys::add);
+        }
+        return keys;
+    }
+
+    private static int getColumn(TemplateMetadata template, String header) {
+        return template.getHeaders().entrySet().stream()
+                .filter(entry -> entry.getValue().equals(header))
+                .mapToInt(Map.Entry::getKey)
+                .findFirst()
+                .orElse(-1);
+    }
+
+    private ReentrantLock getLock(String consolidatedFilename) {
+        return locks[Math.floorMod(consolidatedFilename.hashCode(), locks.length)];
+    }
+
+    private Path getLogPath(String consolidatedFilename) {
+        return Paths.get(CONSOLIDATION_DIR, LOG_DIR, consolidatedFilename);
+    }
+
+    private static final class PendingConsolidation {
+
+        private final List<StoredFile> contentFiles;
+        private final boolean isMerged;
+        private final AtomicLong rowsProcessed;
+        private final CompletableFuture<List<String>> result = new CompletableFuture<>();
+        private final List<StoredFile> files = new ArrayList<>();
+        private final List<String> skippedFiles = new ArrayList<>();
+
+        PendingConsolidation(List<StoredFile> contentFiles, boolean isMerged, AtomicLong rowsProcessed) {
+            this.contentFiles = contentFiles;
+            this.isMerged = isMerged;
+            this.rowsProcessed = rowsProcessed;
+        }
+
+        // Keeps the files whose content is neither merged already nor repeated within the request
+        void selectFiles(Set<String> mergedHashes) {
+            Set<String> selectedHashes = new HashSet<>();
+            for (StoredFile contentFile : contentFiles) {
+                if (mergedHashes.contains(contentFile.getContentHash()) || !selectedHashes.add(contentFile.getContentHash())) {
+                    skippedFiles.add(contentFile.getName());
+                } else {
+                    files.add(contentFile);
+                }
+            }
+        }
+
+        // Files were parsed before the earlier requests of the group were appended, some may have merged the same content
+        void skipAppended(SpooledFiles spooledFiles, Set<String> appendedHashes) {
+            for (int i = 0; i < files.size(); i++) {
+                if (appendedHashes.contains(files.get(i).getContentHash())) {
+                    spooledFiles.skip(i);
+                    skippedFiles.add(files.get(i).getName());
+                }
+            }
+        }
+
+        List<StoredFile> getFiles() {
+            return files;
+        }
+
+        List<String> getFileHashes() {
+            return files.stream().map(StoredFile::getContentHash).collect(Collectors.toList());
+        }
+
+        List<String> getSkippedFileNames() {
+            return skippedFiles;
+        }
+    }
+
+    private static final class RowKeys {
+
+        private final long generation;
+        private final RowKeySet keys;
+
+        RowKeys(long generation, RowKeySet keys) {
+            this.generation = generation;
+            this.keys = keys;
+        }
+    }
+}
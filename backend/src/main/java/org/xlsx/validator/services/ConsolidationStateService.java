@@ -0,0 +1,56 @@
+package org.xlsx.validator.services;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+@Singleton
+public class ConsolidationStateService {
+
+    @ConfigProperty(name = "consolidation.directory")
+    String CONSOLIDATION_DIR;
+    private static final String STATE_DIR = ".state";
+    private static final String VALIDATED_ROW_NUM = "validatedRowNum";
+    private static final String FILE_SIZE = "fileSize";
+    private static final String LAST_MODIFIED = "lastModified";
+
+    // Index of the first row of the consolidated file that has not been validated yet
+    // Only consolidated files from before the row log have a mark, they are carried over into the log once
+    public int getValidatedRowNum(File consolidatedFile) throws IOException {
+        Properties state = readState(consolidatedFile.getName());
+        // Ignore the mark if the file was replaced or modified outside of a consolidation
+        if (state == null
+                || !String.valueOf(consolidatedFile.length()).equals(state.getProperty(FILE_SIZE))
+                || !String.valueOf(consolidatedFile.lastModified()).equals(state.getProperty(LAST_MODIFIED))) {
+            return 0;
+        }
+        return Integer.parseInt(state.getProperty(VALIDATED_ROW_NUM, "0"));
+    }
+
+    public void clear(String consolidatedFilename) throws IOException {
+        Files.deleteIfExists(getStatePath(consolidatedFilename));
+    }
+
+    private Properties readState(String consolidatedFilename) throws IOException {
+        Path statePath = getStatePath(consolidatedFilename);
+        if (!Files.exists(statePath)) {
+            return null;
+        }
+        Properties state = new Properties();
+        try (InputStream inputStream = Files.newInputStream(statePath)) {
+            state.load(inputStream);
+        }
+        return state;
+    }
+
+    private Path getStatePath(String consolidatedFilename) {
+        return Paths.get(CONSOLIDATION_DIR, STATE_DIR, consolidatedFilename + ".properties");
+    }
+}
@@ -0,0 +1,253 @@
+package org.xlsx.validator.services;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.xlsx.validator.models.FileEntry;
+import org.xlsx.validator.models.FileListing;
+import org.xlsx.validator.streaming.RowLog;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * In-memory index of the template and consolidation directories, sorted by file name, so listing them does not touch the disk.
+ * Entries are refreshed by the upload, delete and consolidation paths when they change a file, and by a
+ * {@link WatchService} for changes made by anything else. Content hashes and row counts need the whole file to be read,
+ * they are filled in on a background thread.
+ */
+@Singleton
+public class DirectoryIndexService {
+
+    private static final Logger LOG = Logger.getLogger(DirectoryIndexService.class);
+    @ConfigProperty(name = "template.directory")
+    String TEMPLATE_DIR;
+    @ConfigProperty(name = "consolidation.directory")
+    String CONSOLIDATION_DIR;
+    @Inject
+    XlsxService xlsxService;
+
+    private final Map<String, ConcurrentSkipListMap<String, FileEntry>> indexes = new ConcurrentHashMap<>();
+    private final Map<WatchKey, String> watchedDirs = new ConcurrentHashMap<>();
+    private WatchService watchService;
+    private ExecutorService indexPool;
+
+    @PostConstruct
+    void init() throws IOException {
+        indexPool = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "directory-index"));
+        watchService = FileSystems.getDefault().newWatchService();
+        for (String dir : List.of(TEMPLATE_DIR, CONSOLIDATION_DIR)) {
+            indexes.put(dir, new ConcurrentSkipListMap<>());
+            Path path = Paths.get(dir);
+            Files.createDirectories(path);
+            // Watch before the first scan, so that no change falls in between
+            WatchKey key = path.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            watchedDirs.put(key, dir);
+            rescan(dir);
+        }
+        daemon(this::watch, "directory-watcher").start();
+    }
+
+    @PreDestroy
+    void shutdown() throws IOException {
+        watchService.close();
+        indexPool.shutdownNow();
+    }
+
+    public List<String> getNames(String dir, int offset, int limit) {
+        return getIndex(dir).keySet().stream().skip(offset).limit(limit).collect(Collectors.toList());
+    }
+
+    public FileListing list(String dir, int offset, int limit) {
+        ConcurrentSkipListMap<String, FileEntry> index = getIndex(dir);
+        List<FileEntry> files = index.values().stream().skip(offset).limit(limit).collect(Collectors.toList());
+        return new FileListing(index.size(), offset, limit, files);
+    }
+
+    public void refresh(String dir, String name) {
+        refresh(dir, name, null);
+    }
+
+    // The content hash can be passed in when the caller already has it, e.g. from streaming the upload
+    public void refresh(String dir, String name, String contentHash) {
+        ConcurrentSkipListMap<String, FileEntry> index = indexes.get(dir);
+        // Hidden names are part files, temp files and the row log and state directories
+        if (index == null || name.startsWith(".")) {
+            return;
+        }
+        FileEntry entry;
+        synchronized (index) {
+            try {
+                entry = describe(dir, name, index.get(name), contentHash);
+            } catch (IOException e) {
+                LOG.warnf(e, "Unable to index %s in %s", name, dir);
+                return;
+            }
+            if (entry == null) {
+                index.remove(name);
+            } else {
+                index.put(name, entry);
+            }
+        }
+        if (entry != null && entry.getSize() != null && (entry.getContentHash() == null || entry.getRowCount() == null)) {
+            indexPool.execute(() -> complete(dir, entry));
+        }
+    }
+
+    // Size and modification time are read right away, hash and row count are carried over while the file is unchanged
+    private FileEntry describe(String dir, String name, FileEntry previous, String contentHash) throws IOException {
+        File file = Paths.get(dir, name).toFile();
+        if (dir.equals(CONSOLIDATION_DIR)) {
+            RowLog rowLog = RowLog.open(Paths.get(CONSOLIDATION_DIR, ConsolidationService.LOG_DIR, name));
+            if (rowLog.exists()) {
+                long rowCount = rowLog.getRowCount();
+                if (!rowLog.isMaterialized(Paths.get(CONSOLIDATION_DIR)) || !rowLog.getMaterializedFiles().equals(List.of(name))) {
+                    // Rows were appended since the workbook was last written out or it was split into parts, so only the log describes the file
+                    return new FileEntry(name, null, rowLog.getLastModified(), rowCount, null);
+                }
+                return carryOver(new FileEntry(name, file.length(), file.lastModified(), rowCount, contentHash), previous);
+            }
+            // Parts take their row count from the log they were written from
+            String consolidatedFilename = ConsolidationService.getPartOf(name);
+            if (consolidatedFilename != null && file.isFile()) {
+                Long rowCount = RowLog.open(Paths.get(CONSOLIDATION_DIR, ConsolidationService.LOG_DIR, consolidatedFilename)).getMaterializedRowCount(name);
+                if (rowCount != null) {
+                    return carryOver(new FileEntry(name, file.length(), file.lastModified(), rowCount, contentHash), previous);
+                }
+            }
+        }
+        if (!file.isFile()) {
+            return null;
+        }
+        return carryOver(new FileEntry(name, file.length(), file.lastModified(), null, contentHash), previous);
+    }
+
+    private static FileEntry carryOver(FileEntry entry, FileEntry previous) {
+        if (!entry.isSameVersion(previous)) {
+            return entry;
+        }
+        FileEntry result = entry;
+        if (result.getRowCount() == null) {
+            result = result.withRowCount(previous.getRowCount());
+        }
+        if (result.getContentHash() == null) {
+            result = result.withContentHash(previous.getContentHash());
+        }
+        return result;
+    }
+
+    private void complete(String dir, FileEntry entry) {
+        ConcurrentSkipListMap<String, FileEntry> index = getIndex(dir);
+        FileEntry current = index.get(entry.getName());
+        // Skip versions that were replaced or completed while this task was queued
+        if (!entry.isSameVersion(current) || (current.getContentHash() != null && current.getRowCount() != null)) {
+            return;
+        }
+        Path path = Paths.get(dir, entry.getName());
+        String contentHash = current.getContentHash();
+        if (contentHash == null) {
+            try (InputStream inputStream = Files.newInputStream(path)) {
+                contentHash = DigestUtils.sha256Hex(inputStream);
+            } catch (IOException e) {
+                LOG.debugf(e, "Unable to hash %s", path);
+            }
+        }
+        Long rowCount = current.getRowCount();
+        if (rowCount == null) {
+            try {
+                rowCount = xlsxService.countRows(path);
+            } catch (Exception e) {
+                LOG.debugf(e, "Unable to count the rows of %s", path);
+            }
+        }
+        synchronized (index) {
+            // The file may have changed again while it was read, the refresh for that change queued its own task
+            current = index.get(entry.getName());
+            if (entry.isSameVersion(current)) {
+                // Values filled in by a refresh in the meantime are more accurate than the ones read here
+                index.put(entry.getName(), current
+                        .withContentHash(current.getContentHash() != null ? current.getContentHash() : contentHash)
+                        .withRowCount(current.getRowCount() != null ? current.getRowCount() : rowCount));
+            }
+        }
+    }
+
+    private void rescan(String dir) {
+        Set<String> names = new TreeSet<>(getIndex(dir).keySet());
+        try (Stream<Path> files = Files.list(Paths.get(dir))) {
+            files.filter(Files::isRegularFile).map(file -> file.getFileName().toString()).forEach(names::add);
+        } catch (IOException e) {
+            LOG.warnf(e, "Unable to scan %s", dir);
+        }
+        if (dir.equals(CONSOLIDATION_DIR)) {
+            // Consolidated files that were never downloaded only exist as a row log
+            Path logDir = Paths.get(CONSOLIDATION_DIR, ConsolidationService.LOG_DIR);
+            if (Files.isDirectory(logDir)) {
+                try (Stream<Path> logs = Files.list(logDir)) {
+                    logs.filter(Files::isDirectory).map(log -> log.getFileName().toString()).forEach(names::add);
+                } catch (IOException e) {
+                    LOG.warnf(e, "Unable to scan %s", logDir);
+                }
+            }
+        }
+        names.forEach(name -> refresh(dir, name));
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                String dir = watchedDirs.get(key);
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // Events were dropped, the whole directory has to be compared again
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        rescan(dir);
+                    } else {
+                        refresh(dir, event.context().toString());
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            LOG.debug("Directory watcher stopped");
+        }
+    }
+
+    private ConcurrentSkipListMap<String, FileEntry> getIndex(String dir) {
+        ConcurrentSkipListMap<String, FileEntry> index = indexes.get(dir);
+        if (index == null) {
+            throw new RuntimeException("Directory '" + dir + "' is not indexed");
+        }
+        return index;
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -1,35 +1,73 @@
 package org.xlsx.validator.services;
 
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.resteasy.plugins.providers.multipart.InputPart;
 import org.jboss.resteasy.plugins.providers.multipart.MultipartFormDataInput;
+import org.xlsx.validator.models.StoredFile;
+import org.xlsx.validator.services.WorkspaceService.Workspace;
 
 import javax.inject.Singleton;
 import javax.ws.rs.core.MultivaluedMap;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.*;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 @Singleton
 public class FileService {
 
-    @ConfigProperty(name = "temp.directory")
-    String TEMP_DIR;
+    @ConfigProperty(name = "upload.max-size", defaultValue = "104857600")
+    long MAX_UPLOAD_SIZE;
+    @ConfigProperty(name = "upload.in-memory-threshold", defaultValue = "1048576")
+    int IN_MEMORY_THRESHOLD;
+    // Direct buffers are expensive to allocate, so each thread keeps and reuses one
+    private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(64 * 1024));
 
-    public List<String> uploadFiles(String path, MultipartFormDataInput input) throws Exception {
-        List<String> filePaths = new ArrayList<>();
+    public List<StoredFile> uploadFiles(String path, MultipartFormDataInput input) throws Exception {
+        List<StoredFile> storedFiles = new ArrayList<>();
         List<InputPart> inputParts = getInputParts(input);
         for (InputPart inputPart : inputParts) {
             MultivaluedMap<String, String> header = inputPart.getHeaders();
             String fileName = getFileName(header);
             InputStream inputStream = inputPart.getBody(InputStream.class, null);
-            File file = writeFile(path, inputStream, fileName);
-            filePaths.add(file.getAbsolutePath());
+            storedFiles.add(writeFile(path, inputStream, fileName));
         }
-        return filePaths;
+        return storedFiles;
+    }
+
+    // Files up to the in-memory threshold are kept in memory, larger ones are streamed into the workspace
+    public List<StoredFile> uploadFiles(Workspace workspace, MultipartFormDataInput input) throws Exception {
+        List<StoredFile> storedFiles = new ArrayList<>();
+        for (InputPart inputPart : getInputParts(input)) {
+            String fileName = getFileName(inputPart.getHeaders());
+            try (InputStream inputStream = inputPart.getBody(InputStream.class, null)) {
+                storedFiles.add(receiveFile(workspace, inputStream, fileName));
+            }
+        }
+        return storedFiles;
+    }
+
+    private StoredFile receiveFile(Workspace workspace, InputStream inputStream, String fileName) throws IOException {
+        // One byte past the threshold tells whether the file fits
+        byte[] head = inputStream.readNBytes(IN_MEMORY_THRESHOLD + 1);
+        if (head.length <= IN_MEMORY_THRESHOLD) {
+            if (head.length > MAX_UPLOAD_SIZE) {
+                throw new RuntimeException("File '" + fileName + "' exceeds the maximum upload size of " + MAX_UPLOAD_SIZE + " bytes!");
+            }
+            return new StoredFile(fileName, head, DigestUtils.sha256Hex(head));
+        }
+        Path filePath = workspace.newFile();
+        StoredFile storedFile = streamToFile(new SequenceInputStream(new ByteArrayInputStream(head), inputStream), filePath, fileName);
+        return new StoredFile(fileName, storedFile.getFile(), storedFile.getSize(), storedFile.getContentHash());
     }
 
     public List<String> getFileNames(MultipartFormDataInput input) {
@@ -53,34 +91,53 @@ public class FileService {
         return inputParts;
     }
 
-    public File writeFile(String path, InputStream inputStream, String fileName) throws Exception {
+    public StoredFile writeFile(String path, InputStream inputStream, String fileName) throws Exception {
         if (path.endsWith(".xlsx")) {
             throw new RuntimeException("Cannot process files that are not of type '.xlsx'!");
         }
-        byte[] bytes = IOUtils.toByteArray(inputStream);
         File customDir = new File(path);
-        fileName = customDir.getAbsolutePath() + File.separator + fileName;
-        Path filePath = Paths.get(fileName);
-        try{
-            return Files.write(filePath, bytes, StandardOpenOption.CREATE_NEW).toFile();
-        } catch (FileAlreadyExistsException e) {
-            // Delete if temp file was not cleaned up
-            if(path.equals(TEMP_DIR)){
-                File file = this.getFile(path, fileName);
-                if(!file.delete()){
-                    throw e;
+        Path filePath = Paths.get(customDir.getAbsolutePath(), fileName);
+        // Stream into a hidden part file next to the target, so a failed upload never leaves a partial file behind
+        Path partPath = Files.createFile(filePath.resolveSibling("." + fileName + "." + UUID.randomUUID() + ".part"));
+        try {
+            StoredFile partFile = streamToFile(inputStream, partPath, fileName);
+            return new StoredFile(Files.move(partPath, filePath).toFile(), partFile.getSize(), partFile.getContentHash());
+        } finally {
+            Files.deleteIfExists(partPath);
+        }
+    }
+
+    private StoredFile streamToFile(InputStream inputStream, Path partPath, String fileName) throws IOException {
+        MessageDigest digest = DigestUtils.getSha256Digest();
+        ByteBuffer buffer = BUFFER.get();
+        long size = 0;
+        try (ReadableByteChannel source = Channels.newChannel(inputStream);
+             FileChannel target = FileChannel.open(partPath, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.clear();
+            while (source.read(buffer) != -1) {
+                buffer.flip();
+                size += buffer.remaining();
+                if (size > MAX_UPLOAD_SIZE) {
+                    throw new RuntimeException("File '" + fileName + "' exceeds the maximum upload size of " + MAX_UPLOAD_SIZE + " bytes!");
+                }
+                digest.update(buffer);
+                buffer.rewind();
+                while (buffer.hasRemaining()) {
+                    target.write(buffer);
                 }
+                buffer.clear();
             }
         }
-        return Files.write(filePath, bytes, StandardOpenOption.CREATE_NEW).toFile();
+        return new StoredFile(partPath.toFile(), size, Hex.encodeHexString(digest.digest()));
     }
 
     public void copyFileUsingStream(File source, File dest) throws IOException {
-        try (InputStream is = new FileInputStream(source); OutputStream os = new FileOutputStream(dest)) {
-            byte[] buffer = new byte[1024];
-            int length;
-            while ((length = is.read(buffer)) > 0) {
-                os.write(buffer, 0, length);
+        try (FileChannel sourceChannel = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel destChannel = FileChannel.open(dest.toPath(), StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            long size = sourceChannel.size();
+            while (position < size) {
+                position += sourceChannel.transferTo(position, size - position, destChannel);
             }
         }
     }
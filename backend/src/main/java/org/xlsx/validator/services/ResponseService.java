@@ -1,25 +1,178 @@
 package org.xlsx.validator.services;
 import org.apache.commons.lang3.StringUtils;
+import org.jboss.logging.Logger;
+import org.jboss.resteasy.util.DateUtil;
+import org.xlsx.validator.models.OpenFile;
+
 import javax.inject.Singleton;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-import java.io.File;
+import javax.ws.rs.core.StreamingOutput;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @Singleton
 public class ResponseService {
 
+    private static final Logger LOG = Logger.getLogger(ResponseService.class);
+    public static final String NDJSON = "application/x-ndjson";
+    public static final String ZIP = "application/zip";
+
     public Response responseOk(Object entity) {
         return Response.ok().entity(entity).build();
     }
-    public Response downloadResponse(String fileName, File fileDownload) {
-        Response.ResponseBuilder response = Response.ok(fileDownload);
-        response.header("Content-Disposition", "attachment;filename=" + fileName);
+    // The file is closed once its content is written, or right away if there is no content to send
+    public Response downloadResponse(OpenFile fileDownload, Request request, HttpHeaders headers) {
+        long length = fileDownload.getSize();
+        Date lastModified = new Date(fileDownload.getLastModified());
+        EntityTag entityTag = new EntityTag(Long.toHexString(length) + "-" + Long.toHexString(fileDownload.getLastModified()));
+
+        // Unchanged files cost a 304 (If-None-Match / If-Modified-Since) or a 412 (If-Match / If-Unmodified-Since)
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(lastModified, entityTag);
+        if (notModified != null) {
+            fileDownload.close();
+            return notModified.header("Accept-Ranges", "bytes").build();
+        }
+
+        long start = 0;
+        long end = length - 1;
+        Response.ResponseBuilder response = Response.ok();
+        String range = headers.getHeaderString("Range");
+        if (range != null && isRangeCurrent(headers.getHeaderString("If-Range"), entityTag, lastModified)) {
+            long[] byteRange = parseRange(range, length);
+            if (byteRange == null) {
+                fileDownload.close();
+                return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header("Content-Range", "bytes */" + length).build();
+            }
+            if (byteRange.length == 2) {
+                start = byteRange[0];
+                end = byteRange[1];
+                response = Response.status(Response.Status.PARTIAL_CONTENT)
+                        .header("Content-Range", "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+
+        response.entity(fileRange(fileDownload, start, end - start + 1));
+        response.header("Content-Disposition", "attachment;filename=" + fileDownload.getName());
+        response.header("Content-Length", end - start + 1);
+        response.header("Accept-Ranges", "bytes");
+        response.tag(entityTag);
+        response.lastModified(lastModified);
         return response.build();
     }
+
+    // Copies the requested bytes with FileChannel.transferTo instead of going through a heap buffer
+    private static StreamingOutput fileRange(OpenFile file, long start, long count) {
+        return output -> {
+            try (file) {
+                FileChannel channel = file.getChannel();
+                WritableByteChannel target = Channels.newChannel(output);
+                long position = start;
+                long remaining = count;
+                while (remaining > 0) {
+                    long transferred = channel.transferTo(position, remaining, target);
+                    if (transferred <= 0) {
+                        break;
+                    }
+                    position += transferred;
+                    remaining -= transferred;
+                }
+            }
+        };
+    }
+
+    private static boolean isRangeCurrent(String ifRange, EntityTag entityTag, Date lastModified) {
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals("\"" + entityTag.getValue() + "\"");
+        }
+        try {
+            Date date = DateUtil.parseDate(ifRange);
+            return date != null && date.getTime() / 1000 == lastModified.getTime() / 1000;
+        } catch (DateUtil.DateParseException e) {
+            // An invalid If-Range is ignored and the full file is sent
+            return false;
+        }
+    }
+
+    // Returns {start, end} for a single satisfiable range, an empty array to serve the whole file and null if unsatisfiable
+    private static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=") || range.contains(",")) {
+            // Unknown units and multiple ranges are answered with the full file
+            return new long[0];
+        }
+        String[] bounds = range.substring("bytes=".length()).trim().split("-", -1);
+        try {
+            if (bounds.length != 2 || (bounds[0].isEmpty() && bounds[1].isEmpty())) {
+                return new long[0];
+            }
+            if (bounds[0].isEmpty()) {
+                long suffix = Long.parseLong(bounds[1]);
+                if (suffix == 0 || length == 0) {
+                    return null;
+                }
+                return new long[]{Math.max(0, length - suffix), length - 1};
+            }
+            long start = Long.parseLong(bounds[0]);
+            long end = bounds[1].isEmpty() ? length - 1 : Math.min(Long.parseLong(bounds[1]), length - 1);
+            if (start >= length || start > end) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+    public Response ndjson(StreamingOutput output) {
+        return Response.ok(output, NDJSON).build();
+    }
+    // Streams the files as entries of one zip, workbooks are compressed already so they are not deflated again
+    // The files are closed once the zip is written
+    public Response zipResponse(String fileName, List<OpenFile> files) {
+        StreamingOutput output = outputStream -> {
+            try (ZipOutputStream zip = new ZipOutputStream(outputStream)) {
+                zip.setLevel(Deflater.NO_COMPRESSION);
+                for (OpenFile file : files) {
+                    zip.putNextEntry(new ZipEntry(file.getName()));
+                    Channels.newInputStream(file.getChannel()).transferTo(zip);
+                    zip.closeEntry();
+                }
+            } finally {
+                files.forEach(OpenFile::close);
+            }
+        };
+        return Response.ok(output, ZIP).header("Content-Disposition", "attachment;filename=" + fileName).build();
+    }
+    public Response accepted(Object entity, URI location) {
+        return Response.accepted(entity).location(location).type(MediaType.APPLICATION_JSON).build();
+    }
+    public Response notFound(String message) {
+        return Response.status(Response.Status.NOT_FOUND).entity(message).build();
+    }
+    public Response serviceUnavailable(String message, long retryAfterSeconds) {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, retryAfterSeconds).entity(message).build();
+    }
+    public Response payloadTooLarge(String message) {
+        return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).entity(message).build();
+    }
     public Response badRequest(String message) {
         return Response.status(Response.Status.BAD_REQUEST).entity(message).build();
     }
     public Response serverException(Exception e) {
-        e.printStackTrace();
+        LOG.error("Request failed", e);
         if(StringUtils.isNotEmpty(e.getMessage())){
             return Response.serverError().entity("An exception occurred: " + e.getMessage()).build();
         }
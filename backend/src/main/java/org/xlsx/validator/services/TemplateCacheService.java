@@ -0,0 +1,112 @@
+package org.xlsx.validator.services;
+
+import io.quarkus.runtime.StartupEvent;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+import org.xlsx.validator.validation.TemplateMetadata;
+
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Singleton
+public class TemplateCacheService {
+
+    private static final Logger LOG = Logger.getLogger(TemplateCacheService.class);
+    @ConfigProperty(name = "template.cache.size", defaultValue = "32")
+    int CACHE_SIZE;
+    @ConfigProperty(name = "template.cache.warm-up", defaultValue = "false")
+    boolean WARM_UP;
+    @ConfigProperty(name = "template.directory")
+    String TEMPLATE_DIR;
+    @Inject
+    XlsxService xlsxService;
+
+    // Access ordered, so the eldest entry is the least recently used template
+    private final Map<String, TemplateMetadata> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TemplateMetadata> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    // Parses the most recently modified templates before the first request, which also loads the POI classes the
+    // first consolidation would otherwise pay for. Consolidated files in a shared directory are not templates.
+    void warmUp(@Observes StartupEvent event) {
+        if (!WARM_UP) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<Path> templates;
+        try (Stream<Path> files = Files.list(Paths.get(TEMPLATE_DIR))) {
+            templates = files
+                    .filter(file -> Files.isRegularFile(file) && isTemplateName(file.getFileName().toString()))
+                    .sorted(Comparator.comparingLong((Path file) -> file.toFile().lastModified()).reversed())
+                    .limit(CACHE_SIZE)
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            LOG.warnf(e, "Unable to list templates in %s", TEMPLATE_DIR);
+            return;
+        }
+        int parsed = 0;
+        for (Path template : templates) {
+            try {
+                getTemplate(template.toFile());
+                parsed++;
+            } catch (Exception e) {
+                // An invalid template is reported when it is used
+                LOG.warnf("Unable to parse template %s: %s", template.getFileName(), e.getMessage());
+            }
+        }
+        LOG.infof("Parsed %d templates in %d ms", parsed, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static boolean isTemplateName(String fileName) {
+        return fileName.endsWith(".xlsx") && !fileName.startsWith(".") && !ConsolidationService.isConsolidatedFile(fileName);
+    }
+
+    public TemplateMetadata getTemplate(File templateFile) throws Exception {
+        String key = templateFile.getAbsolutePath();
+        long lastModified = templateFile.lastModified();
+        long size = templateFile.length();
+        TemplateMetadata cached;
+        synchronized (cache) {
+            cached = cache.get(key);
+        }
+        if (cached != null && cached.getLastModified() == lastModified && cached.getSize() == size) {
+            return cached;
+        }
+
+        // Parse outside the lock, a template that was only touched keeps its parsed metadata
+        byte[] content = Files.readAllBytes(templateFile.toPath());
+        String contentHash = DigestUtils.sha256Hex(content);
+        TemplateMetadata template;
+        if (cached != null && cached.getContentHash().equals(contentHash)) {
+            template = cached.withLastModified(lastModified);
+        } else {
+            template = xlsxService.parseTemplate(templateFile.getAbsolutePath(), content, lastModified, contentHash);
+        }
+        synchronized (cache) {
+            cache.put(key, template);
+        }
+        return template;
+    }
+
+    public void invalidate(File templateFile) {
+        synchronized (cache) {
+            cache.remove(templateFile.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.xlsx.validator.services;
+
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.StartupEvent;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import javax.enterprise.event.Observes;
+import javax.inject.Singleton;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Gives every request its own scratch directory under the temp directory, so files uploaded under the same name by
+ * concurrent requests never meet. Workspaces are deleted when the request is done, whatever a crash left behind
+ * is swept when the application starts. Workspaces and row spools live in a directory of this process, so that
+ * instances sharing the temp directory never sweep each other's files.
+ */
+@Singleton
+public class WorkspaceService {
+
+    private static final Logger LOG = Logger.getLogger(WorkspaceService.class);
+    static final String WORKSPACE_PREFIX = "workspace-";
+    static final String SPOOL_PREFIX = "rows-";
+    private static final String PROCESS_PREFIX = "xlsx-validator-";
+    private static final long PID = ProcessHandle.current().pid();
+    private static final String PART_SUFFIX = ".part";
+    @ConfigProperty(name = "temp.directory")
+    String TEMP_DIR;
+    @ConfigProperty(name = "template.directory")
+    String TEMPLATE_DIR;
+    @ConfigProperty(name = "template.upload.stale-part-age-ms")
+    long STALE_PART_AGE_MS;
+
+    // The directory is only created once the first file is put into it, requests served from memory never touch the disk
+    public Workspace create() {
+        return new Workspace(getProcessDir(TEMP_DIR));
+    }
+
+    // Directory of this process under the temp directory, created by whoever puts the first file into it
+    public static Path getProcessDir(String tempDir) {
+        return Paths.get(tempDir, PROCESS_PREFIX + PID);
+    }
+
+    // Process directories in the temp directory are swept once their process is gone. One with the id of this process
+    // was left by a previous run, as happens in containers where the application always runs with the same id.
+    // The template directory can be shared by other replicas, whose uploads may still be writing their part files, so
+    // only part files that have not been written to for a while are removed from it.
+    void sweep(@Observes StartupEvent event) {
+        int swept = sweep(Paths.get(TEMP_DIR), Long.MAX_VALUE, WorkspaceService::isLeftOverProcessDir)
+                + sweep(Paths.get(TEMPLATE_DIR), System.currentTimeMillis() - STALE_PART_AGE_MS,
+                name -> name.startsWith(".") && name.endsWith(PART_SUFFIX));
+        if (swept > 0) {
+            LOG.infof("Removed %d temp files left over from a previous run", swept);
+        }
+    }
+
+    // Whatever a request left behind is swept by the next instance once this process is gone
+    void removeProcessDir(@Observes ShutdownEvent event) {
+        try {
+            Files.deleteIfExists(getProcessDir(TEMP_DIR));
+        } catch (IOException e) {
+            // Not empty
+        }
+    }
+
+    private int sweep(Path dir, long modifiedBefore, Predicate<String> isLeftOver) {
+        int swept = 0;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (isLeftOver.test(file.getFileName().toString()) && Files.getLastModifiedTime(file).toMillis() < modifiedBefore) {
+                    deleteRecursively(file);
+                    swept++;
+                }
+            }
+        } catch (IOException e) {
+            LOG.warnf(e, "Unable to sweep %s", dir);
+        }
+        return swept;
+    }
+
+    private static boolean isLeftOverProcessDir(String name) {
+        if (!name.startsWith(PROCESS_PREFIX)) {
+            return false;
+        }
+        try {
+            long pid = Long.parseLong(name.substring(PROCESS_PREFIX.length()));
+            return pid == PID || ProcessHandle.of(pid).map(process -> !process.isAlive()).orElse(true);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            List<Path> paths = files.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            for (Path file : paths) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Scratch directory of one request, deleted with everything in it on close.
+     */
+    public static final class Workspace implements AutoCloseable {
+
+        private final Path parent;
+        private Path dir;
+        private int fileCount;
+        private boolean closed;
+
+        private Workspace(Path parent) {
+            this.parent = parent;
+        }
+
+        // Files are numbered instead of named after the upload, the original name is kept by the caller
+        public synchronized Path newFile() throws IOException {
+            if (closed) {
+                throw new IllegalStateException("Workspace is closed");
+            }
+            if (dir == null) {
+                dir = Files.createTempDirectory(Files.createDirectories(parent), WORKSPACE_PREFIX);
+            }
+            return Files.createFile(dir.resolve(++fileCount + ".xlsx"));
+        }
+
+        @Override
+        public synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (dir != null) {
+                try {
+                    deleteRecursively(dir);
+                } catch (IOException e) {
+                    // Swept on the next start
+                    LOG.warnf(e, "Unable to delete workspace %s", dir);
+                }
+            }
+        }
+    }
+}
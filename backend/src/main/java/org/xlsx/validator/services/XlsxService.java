@@ -1,145 +1,340 @@
 package org.xlsx.validator.services;
 
-import org.apache.poi.ss.formula.DataValidationEvaluator;
-import org.apache.poi.ss.formula.WorkbookEvaluatorProvider;
+import io.opentelemetry.context.Context;
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.ss.util.CellReference;
-import org.apache.poi.xssf.usermodel.XSSFFormulaEvaluator;
+import org.apache.poi.ss.util.NumberToTextConverter;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.xlsx.validator.models.StoredFile;
+import org.xlsx.validator.models.ValidationSummary;
+import org.xlsx.validator.models.ValidationViolation;
+import org.xlsx.validator.streaming.ConsolidatedWorkbookWriter;
+import org.xlsx.validator.streaming.RowHandler;
+import org.xlsx.validator.streaming.RowKeySet;
+import org.xlsx.validator.streaming.RowLog;
+import org.xlsx.validator.streaming.RowSpool;
+import org.xlsx.validator.streaming.SpooledFiles;
+import org.xlsx.validator.streaming.StreamedRow;
+import org.xlsx.validator.streaming.StreamingWorkbookReader;
+import org.xlsx.validator.validation.RowValidator;
+import org.xlsx.validator.validation.TemplateMetadata;
+import org.xlsx.validator.validation.ValidationRules;
+import org.xlsx.validator.validation.ViolationHandler;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 @Singleton
 public class XlsxService {
 
     private static final int HEADER_ROW = 0;
+    private static final int MAX_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+    @ConfigProperty(name = "consolidation.row-window", defaultValue = "500")
+    int ROW_WINDOW;
+    @ConfigProperty(name = "consolidation.shared-strings", defaultValue = "false")
+    boolean SHARED_STRINGS;
+    @ConfigProperty(name = "consolidation.parallelism", defaultValue = "0")
+    int PARALLELISM;
+    @ConfigProperty(name = "consolidation.shard.sheet-rows", defaultValue = "0")
+    int SHEET_ROWS;
+    @ConfigProperty(name = "temp.directory")
+    String TEMP_DIR;
+    @Inject
+    ConsolidationMetrics metrics;
+    private final StreamingWorkbookReader workbookReader = new StreamingWorkbookReader();
+    private ExecutorService parsingPool;
 
-    public XSSFWorkbook copyFileUsingTemplate(String contentFilePath, String consolidatedFilePath, Map<Integer, String> templateHeaders) throws Exception {
-        Path contentPath = Paths.get(contentFilePath);
-        XSSFWorkbook contentWorkbook = new XSSFWorkbook(Files.newInputStream(contentPath));
-        Path consolidatedWorkbookPath = Paths.get(consolidatedFilePath);
-        XSSFWorkbook consolidatedWorkbook = new XSSFWorkbook(Files.newInputStream(consolidatedWorkbookPath));
-        Sheet consolidatedWorksheet = consolidatedWorkbook.getSheetAt(0);
+    @PostConstruct
+    void init() {
+        // Content files are parsed on a shared pool, 0 uses one thread per core
+        int parallelism = PARALLELISM > 0 ? PARALLELISM : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        parsingPool = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "xlsx-parser-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        parsingPool.shutdownNow();
+    }
+
+    public ConsolidatedWorkbookWriter copyFileUsingTemplate(String contentFilePath, String consolidatedFilePath, TemplateMetadata template) throws Exception {
+        return copyFilesUsingTemplate(List.of(contentFilePath), consolidatedFilePath, template, 0);
+    }
 
-        // Validate headers in all sheets in the workbook
-        contentWorkbook.sheetIterator().forEachRemaining(contentsSheet -> {
-            boolean hasValidHeaders = validateHeaders(templateHeaders, contentsSheet);
-            if (!hasValidHeaders) {
-                throw new RuntimeException("Content File: '" + contentPath.getFileName()
-                        + "' contains invalid headers in sheet: '" + contentsSheet.getSheetName());
+    public ConsolidatedWorkbookWriter copyFilesUsingTemplate(List<String> contentFilePaths, String consolidatedFilePath, TemplateMetadata template, int validatedRowNum) throws Exception {
+        List<StoredFile> contentFiles = new ArrayList<>();
+        for (String contentFilePath : contentFilePaths) {
+            File contentFile = new File(contentFilePath);
+            contentFiles.add(new StoredFile(contentFile, contentFile.length(), null));
+        }
+        try (SpooledFiles spooledFiles = spoolContentFiles(contentFiles, template, new AtomicLong())) {
+            ConsolidatedWorkbookWriter consolidatedWriter = openConsolidatedFile(consolidatedFilePath, template, validatedRowNum);
+            try {
+                appendSpooledFiles(spooledFiles, template, consolidatedWriter.getNextRowNum(), null, consolidatedWriter::append);
+            } catch (Exception e) {
+                // Nothing has been committed yet, dropping the writer rolls back the whole batch
+                consolidatedWriter.close();
+                throw e;
             }
+            return consolidatedWriter;
+        }
+    }
 
-            // Append rows to consolidated sheet
-            copyRows(contentsSheet, consolidatedWorksheet);
-        });
+    public SpooledFiles spoolContentFiles(List<StoredFile> contentFiles, TemplateMetadata template, AtomicLong rowsProcessed) {
+        boolean validate = canValidateBeforeAppend(template);
 
-        // Close the content workbook
-        contentWorkbook.close();
-
-        // Validate consolidated sheet
-        consolidatedWorkbook.setSheetName(0, "Consolidated");
-        validateSheet(consolidatedWorkbook, consolidatedWorksheet, contentPath);
-        return consolidatedWorkbook;
-    }
-
-    private static void validateSheet(XSSFWorkbook workbook, Sheet sheet, Path path) {
-        WorkbookEvaluatorProvider provider = new XSSFFormulaEvaluator(workbook);
-        DataValidationEvaluator validationEvaluator = new DataValidationEvaluator(workbook, provider);
-        for (int i = 1; i <= sheet.getPhysicalNumberOfRows(); i++) {
-            Row row = sheet.getRow(i);
-            if (row != null) {
-                for (int j = row.getFirstCellNum(); j < row.getLastCellNum(); j++) {
-                    Cell cell = row.getCell(j);
-                    CellReference cellReference = new CellReference(cell);
-                    if (!validationEvaluator.isValidCell(cellReference)) {
-                        throw new RuntimeException("File '" + path.getFileName() + "' did not pass validations!");
-                    }
+        // Parse, check headers and validate all content files in parallel, each into its own spool
+        List<String> fileNames = new ArrayList<>();
+        List<Future<RowSpool>> spools = new ArrayList<>();
+        for (StoredFile contentFile : contentFiles) {
+            fileNames.add(contentFile.getName());
+            spools.add(parsingPool.submit(Context.current().wrap(() -> spoolContentFile(contentFile, template, validate, rowsProcessed))));
+        }
+        return new SpooledFiles(fileNames, spools);
+    }
+
+    public ConsolidatedWorkbookWriter openConsolidatedFile(String consolidatedFilePath, TemplateMetadata template, int validatedRowNum) throws Exception {
+        Path consolidatedWorkbookPath = Paths.get(consolidatedFilePath);
+        ConsolidatedWorkbookWriter consolidatedWriter = new ConsolidatedWorkbookWriter(template.getContent(), consolidatedWorkbookPath, ROW_WINDOW, SHARED_STRINGS);
+        if (!Files.exists(consolidatedWorkbookPath)) {
+            // A new consolidated file starts out as a copy of the template
+            return consolidatedWriter;
+        }
+        try {
+            readConsolidatedFile(consolidatedWorkbookPath, template, validatedRowNum, consolidatedWriter::append);
+        } catch (Exception e) {
+            consolidatedWriter.close();
+            throw e;
+        }
+        return consolidatedWriter;
+    }
+
+    // Hands the data rows of a consolidated workbook to the target, validating the ones at or after the validated row number
+    public void readConsolidatedFile(Path consolidatedWorkbookPath, TemplateMetadata template, int validatedRowNum, RowHandler target) throws Exception {
+        int[] nextRowNum = {template.getFirstDataRowNum()};
+        // The template's data validations were compiled once when the template was loaded
+        try (RowValidator validator = template.getValidationRules().newValidator()) {
+            // Stream the consolidated sheet without loading it into memory
+            // Rows below the validated row number passed validation in an earlier merge and are not checked again
+            workbookReader.read(consolidatedWorkbookPath, row -> {
+                if (row.getRowNum() < template.getFirstDataRowNum() || row.isEmpty()) {
+                    return;
                 }
-            }
+                if (row.getRowNum() >= validatedRowNum && !validator.isValidRow(row, nextRowNum[0])) {
+                    metrics.validationFailed(template.getName(), "rows");
+                    throw new RuntimeException("File '" + consolidatedWorkbookPath.getFileName() + "' did not pass validations!");
+                }
+                nextRowNum[0]++;
+                target.handleRow(row);
+            });
         }
     }
 
-    private void copyRows(Sheet sourceSheet, Sheet destSheet) {
-        // Iterate over the rows in the source sheet
-        int endRow = sourceSheet.getLastRowNum();
-        for (int i = 1; i <= endRow; i++) {
-            Row sourceRow = sourceSheet.getRow(i);
-            if (sourceRow == null || sourceRow.getLastCellNum() == 0 || isRowEmpty(sourceRow)) {
-                // If the row is null, break the loop
-                break;
+    // Builds one consolidated workbook per range of rows from the template stored with the row log
+    // The workbooks do not depend on each other and are written in parallel, either all of them are written or the first failure is thrown
+    public void writeConsolidatedFiles(RowLog rowLog, List<RowLog.Range> ranges, List<Path> consolidatedWorkbookPaths) throws Exception {
+        byte[] templateContent = rowLog.readTemplate();
+        // Rows validated at their position stay in the one sheet they were validated for
+        int sheetRows = rowLog.hasPositionalRules() ? 0 : SHEET_ROWS;
+        List<Future<?>> writes = new ArrayList<>();
+        for (int i = 0; i < ranges.size(); i++) {
+            RowLog.Range range = ranges.get(i);
+            Path consolidatedWorkbookPath = consolidatedWorkbookPaths.get(i);
+            Callable<Void> write = () -> {
+                try (ConsolidatedWorkbookWriter consolidatedWriter = new ConsolidatedWorkbookWriter(templateContent, consolidatedWorkbookPath, ROW_WINDOW, SHARED_STRINGS, range.getRowCount(), sheetRows)) {
+                    rowLog.replay(range, consolidatedWriter::append);
+                    consolidatedWriter.commit();
+                }
+                return null;
+            };
+            if (ranges.size() == 1) {
+                write.call();
+                return;
+            }
+            writes.add(parsingPool.submit(Context.current().wrap(write)));
+        }
+        try {
+            for (Future<?> write : writes) {
+                write.get();
+            }
+        } catch (ExecutionException e) {
+            writes.forEach(write -> write.cancel(true));
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
             }
-            // Create a new row in the destination sheet
-            Row destRow = destSheet.createRow(destSheet.getLastRowNum() + 1);
+            throw e;
+        }
+    }
 
-            // Copy the cell values and styles from the source row to the destination row
-            for (int j = sourceRow.getFirstCellNum(); j < sourceRow.getLastCellNum(); j++) {
-                Cell sourceCell = sourceRow.getCell(j);
-                if (sourceCell != null && sourceCell.getCellType() != CellType.BLANK) {
-                    Cell destCell = destRow.createCell(j);
-                    updateCellValue(sourceCell, destCell);
+    // Hands either every row of the spooled files to the target or, if any of them fails, none
+    // With keys, the target drops rows whose key is already in them, those rows take no index
+    public void appendSpooledFiles(SpooledFiles spooledFiles, TemplateMetadata template, int nextRowNum, RowKeySet keys, RowHandler target) throws Exception {
+        List<RowSpool> spools = spooledFiles.await();
+        if (!canValidateBeforeAppend(template)) {
+            // Check every row at the index it is going to get before the first one is appended
+            long start = System.nanoTime();
+            RowKeySet pendingKeys = keys != null ? new RowKeySet(keys.getKeyColumn()) : null;
+            try (RowValidator validator = template.getValidationRules().newValidator()) {
+                int[] rowNum = {nextRowNum};
+                for (int i = 0; i < spools.size(); i++) {
+                    String fileName = spooledFiles.getFileNames().get(i);
+                    spools.get(i).replay(row -> {
+                        if (keys != null && (keys.contains(row) || !pendingKeys.add(row))) {
+                            return;
+                        }
+                        // The rules only hold for the rows of the first sheet, the rows do not go on to another one
+                        if (rowNum[0] >= MAX_ROWS) {
+                            throw new RuntimeException("File '" + fileName + "' does not fit into the consolidated sheet, the template's validations differ by row so its rows cannot go on to another sheet!");
+                        }
+                        if (!validator.isValidRow(row, rowNum[0]++)) {
+                            metrics.validationFailed(template.getName(), "rows");
+                            throw new RuntimeException("File '" + fileName + "' did not pass validations!");
+                        }
+                    });
                 }
+            } finally {
+                metrics.record(ConsolidationMetrics.VALIDATION, template.getName(), System.nanoTime() - start);
             }
         }
+
+        // The rows are appended in upload order, so the output does not depend on which file finished first
+        for (RowSpool spool : spools) {
+            spool.replay(target);
+        }
     }
 
-    private static boolean isRowEmpty(Row row) {
-        boolean isEmpty = true;
-        Iterator<Cell> cellIterator = row.cellIterator();
-        while (cellIterator.hasNext()) {
-            Cell cell = cellIterator.next();
-            if (cell.getCellType() != CellType.BLANK) {
-                isEmpty = false;
-                break;
+    // Rows can be validated before their final position is known when every data row is checked by the same rules
+    private static boolean canValidateBeforeAppend(TemplateMetadata template) {
+        return template.getValidationRules().isUniformFrom(template.getFirstDataRowNum());
+    }
+
+    private RowSpool spoolContentFile(StoredFile contentFile, TemplateMetadata template, boolean validate, AtomicLong rowsProcessed) throws Exception {
+        String templateName = template.getName();
+        String fileName = contentFile.getName();
+        long[] validationNanos = {0};
+        // Rows of a file that was small enough to be kept in memory stay in memory as well
+        RowSpool spool = contentFile.isInMemory() ? new RowSpool() : new RowSpool(Files.createDirectories(WorkspaceService.getProcessDir(TEMP_DIR)));
+        try (RowValidator validator = validate ? template.getValidationRules().newValidator() : null) {
+            ContentRowHandler contentRowHandler = new ContentRowHandler(fileName, templateName, template.getHeaders(), row -> {
+                if (validator != null) {
+                    long start = System.nanoTime();
+                    boolean valid = validator.isValidRow(row, template.getFirstDataRowNum());
+                    validationNanos[0] += System.nanoTime() - start;
+                    if (!valid) {
+                        metrics.validationFailed(templateName, "rows");
+                        throw new RuntimeException("File '" + fileName + "' did not pass validations!");
+                    }
+                }
+                spool.append(row);
+                rowsProcessed.incrementAndGet();
+            });
+            metrics.time(ConsolidationMetrics.PARSE, templateName, () -> {
+                // Stream the content file so that only one row is held in memory at a time
+                read(contentFile, contentRowHandler);
+                spool.finish();
+                // Header check and validation run row by row within the parse, so only their totals are known
+                metrics.record(ConsolidationMetrics.HEADER_CHECK, templateName, contentRowHandler.headerCheckNanos);
+                if (validator != null) {
+                    metrics.record(ConsolidationMetrics.VALIDATION, templateName, validationNanos[0]);
+                }
+                return null;
+            });
+            metrics.recordContentFile(templateName, contentFile.getSize(), spool.getRowCount());
+            return spool;
+        } catch (Exception e) {
+            spool.close();
+            throw e;
+        }
+    }
+
+    // Streams a content file through the header check and the data validations without spooling or writing any rows
+    // Every violation is reported, the check stops once the limit is reached
+    public ValidationSummary validateContentFile(StoredFile contentFile, TemplateMetadata template, long maxViolations, Consumer<ValidationViolation> report) throws Exception {
+        String fileName = contentFile.getName();
+        try (RowValidator validator = template.getValidationRules().newValidator()) {
+            ValidatingRowHandler validatingRowHandler = new ValidatingRowHandler(fileName, template, validator, maxViolations, report);
+            boolean truncated = false;
+            try {
+                read(contentFile, validatingRowHandler);
+            } catch (ViolationLimitReached e) {
+                truncated = true;
             }
+            return new ValidationSummary(fileName, validatingRowHandler.rowCount, validatingRowHandler.violations, truncated, null);
+        }
+    }
+
+    private void read(StoredFile contentFile, RowHandler handler) throws Exception {
+        if (contentFile.isInMemory()) {
+            workbookReader.read(contentFile.getContent(), handler);
+        } else {
+            workbookReader.read(contentFile.getFile().toPath(), handler);
         }
-        return isEmpty;
     }
 
+    // Rows below the header row of the first sheet, counted without loading the workbook
+    public long countRows(Path workbookPath) throws Exception {
+        long[] rowCount = {0};
+        workbookReader.read(workbookPath, new RowHandler() {
+            private int sheetCount;
 
-    private void updateCellValue(Cell sourceCell, Cell targetCell) {
-        if (sourceCell != null) {
-            if (sourceCell.getLocalDateTimeCellValue() != null) {
-                targetCell.setCellValue(sourceCell.getLocalDateTimeCellValue());
-            } else if (sourceCell.getDateCellValue() != null) {
-                targetCell.setCellValue(sourceCell.getDateCellValue());
-            } else if (sourceCell.getRichStringCellValue() != null) {
-                targetCell.setCellValue(sourceCell.getRichStringCellValue());
-            } else if (sourceCell.getCellType() == CellType.BOOLEAN) {
-                targetCell.setCellValue(sourceCell.getBooleanCellValue());
-            } else if (sourceCell.getCellType() == CellType.NUMERIC) {
-                targetCell.setCellValue(sourceCell.getNumericCellValue());
-            } else if (sourceCell.getCellType() == CellType.STRING) {
-                targetCell.setCellValue(sourceCell.getStringCellValue());
-            } else if (sourceCell.getCellType() == CellType.FORMULA) {
-                targetCell.setCellFormula(sourceCell.getCellFormula());
-            } else {
-                targetCell.setCellValue("");
+            @Override
+            public void startSheet(String sheetName) {
+                sheetCount++;
             }
-        }
+
+            @Override
+            public void handleRow(StreamedRow row) {
+                if (sheetCount == 1 && row.getRowNum() > HEADER_ROW && !row.isEmpty()) {
+                    rowCount[0]++;
+                }
+            }
+        });
+        return rowCount[0];
     }
 
-    public Sheet validateTemplate(String templatePath) throws IOException {
+    public TemplateMetadata parseTemplate(String templatePath, byte[] content, long lastModified, String contentHash) throws IOException {
         // Check that the filename ends with ".xlsx"
         if (!templatePath.endsWith(".xlsx")) {
             throw new RuntimeException("Invalid file extension");
         }
 
         // Load template workbook
-        Path path = Paths.get(templatePath);
-        XSSFWorkbook workbook = new XSSFWorkbook(Files.newInputStream(path));
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(content))) {
+            // Check that the workbook has only one worksheet
+            int numSheets = workbook.getNumberOfSheets();
+            if (numSheets != 1) {
+                throw new RuntimeException("Invalid number of worksheets");
+            }
 
-        // Check that the workbook has only one worksheet
-        int numSheets = workbook.getNumberOfSheets();
-        if (numSheets != 1) {
-            throw new RuntimeException("Invalid number of worksheets");
+            Map<Integer, String> headers = getHeadersFromFirstRow(workbook.getSheetAt(0));
+            int firstDataRowNum = workbook.getSheetAt(0).getLastRowNum() + 1;
+            ValidationRules validationRules = ValidationRules.compile(workbook, content, firstDataRowNum);
+            String name = Paths.get(templatePath).getFileName().toString();
+            return new TemplateMetadata(name, lastModified, content.length, contentHash, content, numSheets, firstDataRowNum, headers, validationRules);
         }
-
-        return workbook.getSheetAt(0);
     }
 
     public Map<Integer, String> getHeadersFromFirstRow(Sheet templateWorksheet) {
@@ -153,23 +348,194 @@ public class XlsxService {
         return headers;
     }
 
-    private static boolean validateHeaders(Map<Integer, String> templateHeaders, Sheet worksheet) {
-        Row headerRow = worksheet.getRow(0);
+    private static boolean validateHeaders(Map<Integer, String> templateHeaders, StreamedRow headerRow) {
         int headerCount = headerRow.getLastCellNum();
         if (headerCount != templateHeaders.size()) {
             return false;
         }
         for (int i = 0; i < headerCount; i++) {
-            Cell cell = headerRow.getCell(i);
-            if (!templateHeaders.containsKey(i)) {
+            if (!templateHeaders.containsKey(i) || headerRow.getCellType(i) != CellType.STRING) {
                 return false;
             }
             String expectedHeader = templateHeaders.get(i);
-            String actualHeader = cell.getStringCellValue().trim();
+            String actualHeader = headerRow.getStringValue(i).trim();
             if (!actualHeader.equals(expectedHeader)) {
                 return false;
             }
         }
         return true;
     }
+
+    private static String getCellText(StreamedRow row, int column) {
+        switch (row.getCellType(column)) {
+            case NUMERIC:
+                double value = row.getNumericValue(column);
+                return row.isDate(column) ? DateUtil.getLocalDateTime(value).toString() : NumberToTextConverter.toText(value);
+            case STRING:
+            case ERROR:
+                return row.getStringValue(column);
+            case BOOLEAN:
+                return row.getBooleanValue(column) ? "TRUE" : "FALSE";
+            default:
+                String formula = row.getFormula(column);
+                return formula != null ? "=" + formula : "";
+        }
+    }
+
+    private class ContentRowHandler implements RowHandler {
+
+        private final String fileName;
+        private final String templateName;
+        private final Map<Integer, String> templateHeaders;
+        private final Consumer<StreamedRow> appendRow;
+        private String sheetName;
+        private int expectedRowNum;
+        private boolean sheetEnded;
+        private long headerCheckNanos;
+
+        ContentRowHandler(String fileName, String templateName, Map<Integer, String> templateHeaders, Consumer<StreamedRow> appendRow) {
+            this.fileName = fileName;
+            this.templateName = templateName;
+            this.templateHeaders = templateHeaders;
+            this.appendRow = appendRow;
+        }
+
+        @Override
+        public void startSheet(String sheetName) {
+            this.sheetName = sheetName;
+            this.expectedRowNum = HEADER_ROW;
+            this.sheetEnded = false;
+        }
+
+        @Override
+        public void handleRow(StreamedRow row) {
+            if (sheetEnded) {
+                return;
+            }
+            // Validate headers in all sheets in the workbook
+            if (expectedRowNum == HEADER_ROW) {
+                long start = System.nanoTime();
+                boolean validHeaders = row.getRowNum() == HEADER_ROW && validateHeaders(templateHeaders, row);
+                headerCheckNanos += System.nanoTime() - start;
+                if (!validHeaders) {
+                    throw invalidHeaders();
+                }
+                expectedRowNum++;
+                return;
+            }
+            if (row.getRowNum() != expectedRowNum || row.isEmpty()) {
+                // Stop at the first missing or empty row
+                sheetEnded = true;
+                return;
+            }
+            // Append rows to consolidated sheet
+            appendRow.accept(row);
+            expectedRowNum++;
+        }
+
+        @Override
+        public void endSheet(String sheetName) {
+            if (expectedRowNum == HEADER_ROW) {
+                throw invalidHeaders();
+            }
+        }
+
+        private RuntimeException invalidHeaders() {
+            metrics.validationFailed(templateName, "headers");
+            return new RuntimeException("Content File: '" + fileName
+                    + "' contains invalid headers in sheet: '" + sheetName);
+        }
+    }
+
+    // Ends the read once the violation limit is reached, thrown for control flow only
+    private static final class ViolationLimitReached extends RuntimeException {
+
+        ViolationLimitReached() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Follows the same rules as ContentRowHandler but reports every violation instead of failing at the first one
+    private class ValidatingRowHandler implements RowHandler {
+
+        private final String fileName;
+        private final TemplateMetadata template;
+        private final RowValidator validator;
+        private final long maxViolations;
+        private final Consumer<ValidationViolation> report;
+        private final ViolationHandler violationHandler = (row, column, rule) -> reportViolation(row.getRowNum(), column, rule, getCellText(row, column));
+        private String sheetName;
+        private int expectedRowNum;
+        private boolean sheetEnded;
+        private long rowCount;
+        private long violations;
+
+        ValidatingRowHandler(String fileName, TemplateMetadata template, RowValidator validator, long maxViolations, Consumer<ValidationViolation> report) {
+            this.fileName = fileName;
+            this.template = template;
+            this.validator = validator;
+            this.maxViolations = maxViolations;
+            this.report = report;
+        }
+
+        @Override
+        public void startSheet(String sheetName) {
+            this.sheetName = sheetName;
+            this.expectedRowNum = HEADER_ROW;
+            this.sheetEnded = false;
+        }
+
+        @Override
+        public void handleRow(StreamedRow row) {
+            if (sheetEnded) {
+                return;
+            }
+            if (expectedRowNum == HEADER_ROW) {
+                if (row.getRowNum() != HEADER_ROW || !validateHeaders(template.getHeaders(), row)) {
+                    // Data rows under wrong headers would only add noise, the rest of the sheet is skipped
+                    reportHeaders(row);
+                    sheetEnded = true;
+                    return;
+                }
+                expectedRowNum++;
+                return;
+            }
+            if (row.getRowNum() != expectedRowNum || row.isEmpty()) {
+                sheetEnded = true;
+                return;
+            }
+            // Rows are checked at the index they would get in a new consolidated file
+            validator.validateRow(row, template.getFirstDataRowNum() + (int) rowCount, violationHandler);
+            rowCount++;
+            expectedRowNum++;
+        }
+
+        @Override
+        public void endSheet(String sheetName) {
+            if (expectedRowNum == HEADER_ROW && !sheetEnded) {
+                reportViolation(HEADER_ROW, 0, "header", "");
+            }
+        }
+
+        private void reportHeaders(StreamedRow row) {
+            if (row.getRowNum() != HEADER_ROW) {
+                reportViolation(HEADER_ROW, 0, "header", "");
+                return;
+            }
+            Map<Integer, String> templateHeaders = template.getHeaders();
+            for (int i = 0; i < Math.max(row.getLastCellNum(), templateHeaders.size()); i++) {
+                String header = getCellText(row, i).trim();
+                if (row.getCellType(i) != CellType.STRING || !header.equals(templateHeaders.get(i))) {
+                    reportViolation(HEADER_ROW, i, "header", header);
+                }
+            }
+        }
+
+        private void reportViolation(int rowNum, int column, String rule, String value) {
+            report.accept(new ValidationViolation(fileName, sheetName, new CellReference(rowNum, column).formatAsString(), rule, value));
+            if (++violations >= maxViolations) {
+                throw new ViolationLimitReached();
+            }
+        }
+    }
 }
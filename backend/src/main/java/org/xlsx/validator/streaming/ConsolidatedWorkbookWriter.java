@@ -0,0 +1,125 @@
+package org.xlsx.validator.streaming;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataFormat;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Append-only writer for a consolidated workbook.
+ * The workbook is built from the template with {@link SXSSFWorkbook}, so only a bounded window of rows is kept
+ * in memory and the template's header, styles and data validations are carried over untouched.
+ * Rows that do not fit into the sheet go on to copies of the template sheet, which are made up front for the expected rows.
+ * Nothing is visible at the target path until {@link #commit()} replaces it in one move.
+ */
+public class ConsolidatedWorkbookWriter implements Closeable {
+
+    private static final String SHEET_NAME = "Consolidated";
+    private static final int MAX_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+
+    private final Path target;
+    private final SXSSFWorkbook workbook;
+    private SXSSFSheet sheet;
+    private int sheetIndex;
+    private final int firstDataRowNum;
+    private final int sheetRows;
+    private final DataFormat dataFormat;
+    // Destination styles by number format, every source style with the same format maps to one of these
+    private final Map<String, CellStyle> numberStyles = new HashMap<>();
+    private int nextRowNum;
+
+    // With shared strings every distinct text is written once for the whole workbook instead of inline in every cell
+    public ConsolidatedWorkbookWriter(byte[] templateContent, Path target, int rowWindow, boolean sharedStrings) throws IOException {
+        this(templateContent, target, rowWindow, sharedStrings, 0, 0);
+    }
+
+    // A sheet takes at most maxSheetRows data rows, 0 fills each sheet up to the Excel row limit
+    public ConsolidatedWorkbookWriter(byte[] templateContent, Path target, int rowWindow, boolean sharedStrings, long expectedRows, int maxSheetRows) throws IOException {
+        this.target = target;
+        XSSFWorkbook templateWorkbook = new XSSFWorkbook(new ByteArrayInputStream(templateContent));
+        templateWorkbook.setSheetName(0, SHEET_NAME);
+        this.firstDataRowNum = templateWorkbook.getSheetAt(0).getLastRowNum() + 1;
+        this.nextRowNum = firstDataRowNum;
+        this.sheetRows = maxSheetRows > 0 ? Math.min(maxSheetRows, MAX_ROWS - firstDataRowNum) : MAX_ROWS - firstDataRowNum;
+        // SXSSF cannot clone sheets, so the copies with the template's header and data validations are made before
+        long sheetCount = Math.max(1, (expectedRows + sheetRows - 1) / sheetRows);
+        for (int i = 2; i <= sheetCount; i++) {
+            templateWorkbook.cloneSheet(0, SHEET_NAME + " " + i);
+        }
+        this.workbook = new SXSSFWorkbook(templateWorkbook, rowWindow, true, sharedStrings);
+        this.sheet = workbook.getSheetAt(0);
+        this.dataFormat = workbook.createDataFormat();
+    }
+
+    // Index of the first row after the rows inherited from the template
+    public int getFirstDataRowNum() {
+        return firstDataRowNum;
+    }
+
+    public int getNextRowNum() {
+        return nextRowNum;
+    }
+
+    public void append(StreamedRow sourceRow) {
+        if (nextRowNum - firstDataRowNum >= sheetRows && sheetIndex + 1 < workbook.getNumberOfSheets()) {
+            sheet = workbook.getSheetAt(++sheetIndex);
+            nextRowNum = firstDataRowNum;
+        }
+        Row destRow = sheet.createRow(nextRowNum++);
+        for (int j = 0; j < sourceRow.getLastCellNum(); j++) {
+            if (sourceRow.getCellType(j) != CellType.BLANK || sourceRow.getFormula(j) != null) {
+                Cell destCell = destRow.createCell(j);
+                sourceRow.copyValueTo(j, destCell);
+                String format = sourceRow.getNumberFormat(j);
+                if (format != null) {
+                    destCell.setCellStyle(getNumberStyle(format));
+                }
+            }
+        }
+    }
+
+    private CellStyle getNumberStyle(String format) {
+        CellStyle style = numberStyles.get(format);
+        if (style == null) {
+            style = workbook.createCellStyle();
+            style.setDataFormat(dataFormat.getFormat(format));
+            numberStyles.put(format, style);
+        }
+        return style;
+    }
+
+    public void commit() throws IOException {
+        // Created with the default permissions, the file replaces the consolidated file as is
+        Path tempFile = Files.createFile(target.toAbsolutePath().resolveSibling("." + target.getFileName() + "." + UUID.randomUUID() + ".tmp"));
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                workbook.write(outputStream);
+            }
+            Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        workbook.dispose();
+        workbook.close();
+    }
+}
@@ -0,0 +1,134 @@
+package org.xlsx.validator.streaming;
+
+import org.apache.poi.ss.usermodel.CellType;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary encoding of a {@link StreamedRow}: the row number, the cell count and one tagged value per cell.
+ * Flag bits on the tag mark a formula and, for numbers, a number format following the value.
+ */
+public final class RowCodec {
+
+    private static final byte BLANK = 0;
+    private static final byte NUMERIC = 1;
+    private static final byte DATE = 2;
+    private static final byte STRING = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte ERROR = 5;
+    private static final byte FORMAT_FLAG = 0x40;
+    private static final byte FORMULA_FLAG = (byte) 0x80;
+
+    private RowCodec() {
+    }
+
+    public static void write(StreamedRow row, DataOutput out) throws IOException {
+        out.writeInt(row.getRowNum());
+        out.writeShort(row.getLastCellNum());
+        for (int j = 0; j < row.getLastCellNum(); j++) {
+            String formula = row.getFormula(j);
+            byte tag = tagOf(row, j);
+            String format = tag == NUMERIC || tag == DATE ? row.getNumberFormat(j) : null;
+            int flags = tag;
+            if (format != null) {
+                flags |= FORMAT_FLAG;
+            }
+            if (formula != null) {
+                flags |= FORMULA_FLAG;
+            }
+            out.writeByte(flags);
+            switch (tag) {
+                case NUMERIC:
+                case DATE:
+                    out.writeDouble(row.getNumericValue(j));
+                    if (format != null) {
+                        writeString(format, out);
+                    }
+                    break;
+                case STRING:
+                case ERROR:
+                    writeString(row.getStringValue(j), out);
+                    break;
+                case BOOLEAN:
+                    out.writeBoolean(row.getBooleanValue(j));
+                    break;
+                default:
+                    break;
+            }
+            if (formula != null) {
+                writeString(formula, out);
+            }
+        }
+    }
+
+    // Reads the next row into the given instance, returns false once the input is exhausted
+    public static boolean read(DataInput in, StreamedRow row) throws IOException {
+        int rowNum;
+        try {
+            rowNum = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        row.reset(rowNum);
+        int lastCellNum = in.readUnsignedShort();
+        for (int j = 0; j < lastCellNum; j++) {
+            byte flags = in.readByte();
+            byte tag = (byte) (flags & ~(FORMULA_FLAG | FORMAT_FLAG));
+            switch (tag) {
+                case NUMERIC:
+                case DATE:
+                    double value = in.readDouble();
+                    row.setNumeric(j, value, tag == DATE, (flags & FORMAT_FLAG) != 0 ? readString(in) : null);
+                    break;
+                case STRING:
+                    row.setString(j, readString(in));
+                    break;
+                case ERROR:
+                    row.setError(j, readString(in));
+                    break;
+                case BOOLEAN:
+                    row.setBoolean(j, in.readBoolean());
+                    break;
+                default:
+                    break;
+            }
+            if ((flags & FORMULA_FLAG) != 0) {
+                row.setFormula(j, readString(in));
+            }
+        }
+        return true;
+    }
+
+    private static byte tagOf(StreamedRow row, int column) {
+        CellType cellType = row.getCellType(column);
+        switch (cellType) {
+            case NUMERIC:
+                return row.isDate(column) ? DATE : NUMERIC;
+            case STRING:
+                return STRING;
+            case BOOLEAN:
+                return BOOLEAN;
+            case ERROR:
+                return ERROR;
+            default:
+                return BLANK;
+        }
+    }
+
+    // Cells can hold more text than writeUTF allows, so strings are written as length prefixed UTF-8
+    private static void writeString(String value, DataOutput out) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
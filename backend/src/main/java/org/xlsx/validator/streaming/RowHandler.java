@@ -0,0 +1,12 @@
+package org.xlsx.validator.streaming;
+
+public interface RowHandler {
+
+    default void startSheet(String sheetName) {
+    }
+
+    void handleRow(StreamedRow row);
+
+    default void endSheet(String sheetName) {
+    }
+}
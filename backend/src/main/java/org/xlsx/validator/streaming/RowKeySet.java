@@ -0,0 +1,122 @@
+package org.xlsx.validator.streaming;
+
+/**
+ * The keys of the rows of a consolidated file, for dropping rows whose key column repeats an earlier row.
+ * Only a 64-bit hash of each key is kept, in an open addressing table of longs, so a million rows take about 16 MB
+ * instead of a set of strings. Rows with an empty key are never treated as duplicates.
+ */
+public class RowKeySet {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int keyColumn;
+    private long[] table = new long[INITIAL_CAPACITY];
+    private int size;
+
+    public RowKeySet(int keyColumn) {
+        this.keyColumn = keyColumn;
+    }
+
+    public int getKeyColumn() {
+        return keyColumn;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Returns false if an earlier row had the same key
+    public boolean add(StreamedRow row) {
+        long key = hashKey(row);
+        if (key == 0) {
+            return true;
+        }
+        // Keep the table at most half full so probe sequences stay short
+        if (size * 2 >= table.length) {
+            resize();
+        }
+        if (!insert(table, key)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    // Whether an earlier row had the same key, without adding the row
+    public boolean contains(StreamedRow row) {
+        long key = hashKey(row);
+        if (key == 0) {
+            return false;
+        }
+        int mask = table.length - 1;
+        int slot = (int) key & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    // 0 marks an empty key as well as an empty slot
+    private long hashKey(StreamedRow row) {
+        long hash = FNV_OFFSET;
+        switch (row.getCellType(keyColumn)) {
+            case STRING:
+                String value = row.getStringValue(keyColumn);
+                if (value.isEmpty()) {
+                    return 0;
+                }
+                for (int i = 0; i < value.length(); i++) {
+                    hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+                }
+                break;
+            case NUMERIC:
+            case BOOLEAN:
+                hash = (hash ^ Double.doubleToLongBits(row.getNumericValue(keyColumn))) * FNV_PRIME;
+                break;
+            default:
+                return 0;
+        }
+        // Strings and numbers with the same bits are different keys
+        hash = (hash ^ row.getCellType(keyColumn).ordinal()) * FNV_PRIME;
+        hash = mix(hash);
+        return hash != 0 ? hash : 1;
+    }
+
+    private static boolean insert(long[] table, long key) {
+        int mask = table.length - 1;
+        int slot = (int) key & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+        return true;
+    }
+
+    private void resize() {
+        long[] resized = new long[table.length * 2];
+        for (long key : table) {
+            if (key != 0) {
+                insert(resized, key);
+            }
+        }
+        table = resized;
+    }
+
+    // Finalizer of MurmurHash3, spreads the FNV hash over the low bits used as the slot
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,362 @@
+package org.xlsx.validator.streaming;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of the validated rows of one consolidated file.
+ * Every commit adds one segment of rows in {@link RowCodec} format and then replaces the index, which lists the
+ * segments with their row and byte counts, in one move. A segment that is not in the index was never committed and is ignored.
+ * The index also lists the content hashes of the files merged so far, committed together with their rows, and records which generation of the log was last written out as a workbook, so the workbook is only
+ * rebuilt after new rows were appended. A log can be written out as several workbooks, each holding a {@link Range} of its rows,
+ * unless its rows were validated at their position by a template whose rules differ by row.
+ */
+public class RowLog {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String INDEX = "index.properties";
+    private static final String TEMPLATE = "template.xlsx";
+    private static final String SEGMENT_EXTENSION = ".seg";
+    private static final String GENERATION = "generation";
+    private static final String ROW_COUNT = "rowCount";
+    private static final String SEGMENTS = "segments";
+    private static final String TEMPLATE_HASH = "templateHash";
+    private static final String POSITIONAL_RULES = "positionalRules";
+    private static final String CONTENT_HASHES = "contentHashes";
+    private static final String MATERIALIZED = "materialized.";
+    private static final String MATERIALIZED_GENERATION = MATERIALIZED + "generation";
+    private static final String MATERIALIZED_FILES = MATERIALIZED + "files";
+
+    private final Path directory;
+    private final Properties index;
+
+    private RowLog(Path directory, Properties index) {
+        this.directory = directory;
+        this.index = index;
+    }
+
+    public static RowLog open(Path directory) throws IOException {
+        Properties index = new Properties();
+        Path indexPath = directory.resolve(INDEX);
+        if (Files.exists(indexPath)) {
+            try (InputStream inputStream = Files.newInputStream(indexPath)) {
+                index.load(inputStream);
+            }
+        }
+        return new RowLog(directory, index);
+    }
+
+    public boolean exists() {
+        return index.containsKey(GENERATION);
+    }
+
+    public long getGeneration() {
+        return Long.parseLong(index.getProperty(GENERATION, "0"));
+    }
+
+    public int getRowCount() {
+        return Integer.parseInt(index.getProperty(ROW_COUNT, "0"));
+    }
+
+    // Time of the last commit or download, 0 if the log does not exist
+    public long getLastModified() {
+        return directory.resolve(INDEX).toFile().lastModified();
+    }
+
+    // True if the rows were validated at their index in a single sheet, the log then has to be written out as exactly that
+    public boolean hasPositionalRules() {
+        return Boolean.parseBoolean(index.getProperty(POSITIONAL_RULES));
+    }
+
+    public byte[] readTemplate() throws IOException {
+        return Files.readAllBytes(directory.resolve(TEMPLATE));
+    }
+
+    // Hashes of the content files whose rows are in the log
+    public Set<String> getContentHashes() {
+        return new HashSet<>(splitList(index.getProperty(CONTENT_HASHES, "")));
+    }
+
+    public Appender append() {
+        return new Appender();
+    }
+
+    public void replay(RowHandler handler) throws IOException {
+        replay(new Range(0, getRowCount()), handler);
+    }
+
+    public void replay(Range range, RowHandler handler) throws IOException {
+        StreamedRow row = new StreamedRow();
+        long segmentStart = 0;
+        long end = range.getFirstRow() + range.getRowCount();
+        for (String segment : getSegments()) {
+            String[] entry = segment.split(":");
+            int rowCount = Integer.parseInt(entry[1]);
+            // Segments outside of the range are not opened at all
+            if (segmentStart + rowCount > range.getFirstRow() && segmentStart < end) {
+                try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(directory.resolve(entry[0])), BUFFER_SIZE))) {
+                    // Read only the committed rows, the segment is never written to again
+                    for (long rowNum = segmentStart; rowNum < segmentStart + rowCount && rowNum < end && RowCodec.read(input, row); rowNum++) {
+                        if (rowNum >= range.getFirstRow()) {
+                            handler.handleRow(row);
+                        }
+                    }
+                }
+            }
+            segmentStart += rowCount;
+        }
+    }
+
+    // Splits the rows into consecutive ranges of at most maxRows rows and about maxBytes bytes of row data, 0 means no limit
+    // Only the byte count of whole segments is known, the rows of a segment are taken to be of the same size
+    public List<Range> split(long maxRows, long maxBytes) {
+        List<Range> ranges = new ArrayList<>();
+        long firstRow = 0;
+        long rows = 0;
+        long bytes = 0;
+        for (String segment : getSegments()) {
+            String[] entry = segment.split(":");
+            long segmentRows = Long.parseLong(entry[1]);
+            long segmentBytes = Long.parseLong(entry[2]);
+            while (segmentRows > 0) {
+                long take = segmentRows;
+                if (maxRows > 0) {
+                    take = Math.min(take, maxRows - rows);
+                }
+                if (maxBytes > 0 && segmentBytes > 0) {
+                    // A range holds at least one row, even if that row alone is larger than the limit
+                    long fitting = (maxBytes - bytes) * segmentRows / segmentBytes;
+                    take = Math.min(take, rows == 0 ? Math.max(1, fitting) : fitting);
+                }
+                if (take <= 0) {
+                    ranges.add(new Range(firstRow, rows));
+                    firstRow += rows;
+                    rows = 0;
+                    bytes = 0;
+                    continue;
+                }
+                long takenBytes = take * segmentBytes / segmentRows;
+                rows += take;
+                bytes += takenBytes;
+                segmentRows -= take;
+                segmentBytes -= takenBytes;
+            }
+        }
+        // An empty log is still written out as one workbook holding the template only
+        if (rows > 0 || ranges.isEmpty()) {
+            ranges.add(new Range(firstRow, rows));
+        }
+        return ranges;
+    }
+
+    // Names of the workbooks the log was last written out as, in row order
+    public List<String> getMaterializedFiles() {
+        List<String> names = new ArrayList<>();
+        int count = Integer.parseInt(index.getProperty(MATERIALIZED_FILES, "0"));
+        for (int i = 0; i < count; i++) {
+            names.add(index.getProperty(MATERIALIZED + i + ".name"));
+        }
+        return names;
+    }
+
+    // Rows in the given workbook when it was written out, null if the log was not written out under that name
+    public Long getMaterializedRowCount(String name) {
+        int i = getMaterializedFiles().indexOf(name);
+        return i < 0 ? null : Long.valueOf(index.getProperty(MATERIALIZED + i + ".rows"));
+    }
+
+    // True if the workbooks in the given directory were written from the current generation and none was touched since
+    public boolean isMaterialized(Path workbookDirectory) {
+        List<String> names = getMaterializedFiles();
+        if (names.isEmpty() || !Objects.equals(index.getProperty(GENERATION), index.getProperty(MATERIALIZED_GENERATION))) {
+            return false;
+        }
+        for (int i = 0; i < names.size(); i++) {
+            File workbook = workbookDirectory.resolve(names.get(i)).toFile();
+            if (!workbook.isFile()
+                    || !String.valueOf(workbook.length()).equals(index.getProperty(MATERIALIZED + i + ".size"))
+                    || !String.valueOf(workbook.lastModified()).equals(index.getProperty(MATERIALIZED + i + ".lastModified"))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Records the workbooks written from the current generation, one per range of rows
+    public void setMaterialized(Path workbookDirectory, List<String> names, List<Range> ranges) throws IOException {
+        index.stringPropertyNames().stream().filter(key -> key.startsWith(MATERIALIZED)).forEach(index::remove);
+        index.setProperty(MATERIALIZED_GENERATION, index.getProperty(GENERATION));
+        index.setProperty(MATERIALIZED_FILES, String.valueOf(names.size()));
+        for (int i = 0; i < names.size(); i++) {
+            File workbook = workbookDirectory.resolve(names.get(i)).toFile();
+            index.setProperty(MATERIALIZED + i + ".name", names.get(i));
+            index.setProperty(MATERIALIZED + i + ".rows", String.valueOf(ranges.get(i).getRowCount()));
+            index.setProperty(MATERIALIZED + i + ".size", String.valueOf(workbook.length()));
+            index.setProperty(MATERIALIZED + i + ".lastModified", String.valueOf(workbook.lastModified()));
+        }
+        writeIndex();
+    }
+
+    public void delete() throws IOException {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        index.clear();
+    }
+
+    private List<String> getSegments() {
+        return splitList(index.getProperty(SEGMENTS, ""));
+    }
+
+    private static List<String> splitList(String value) {
+        List<String> entries = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            if (!entry.isEmpty()) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private void writeIndex() throws IOException {
+        Path tempFile = directory.resolve("." + INDEX + "." + UUID.randomUUID() + ".tmp");
+        try {
+            try (OutputStream outputStream = Files.newOutputStream(tempFile)) {
+                index.store(outputStream, null);
+            }
+            Files.move(tempFile, directory.resolve(INDEX), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Consecutive rows of the log, counted from the first row of the first segment.
+     */
+    public static final class Range {
+
+        private final long firstRow;
+        private final long rowCount;
+
+        public Range(long firstRow, long rowCount) {
+            this.firstRow = firstRow;
+            this.rowCount = rowCount;
+        }
+
+        public long getFirstRow() {
+            return firstRow;
+        }
+
+        public long getRowCount() {
+            return rowCount;
+        }
+    }
+
+    /**
+     * Writes the rows of one commit to a new segment. Closing without {@link #commit} discards them.
+     */
+    public class Appender implements Closeable {
+
+        private final Path segmentPath;
+        private DataOutputStream output;
+        private long byteCount;
+        private int rowCount;
+
+        private Appender() {
+            this.segmentPath = directory.resolve("." + UUID.randomUUID() + SEGMENT_EXTENSION + ".tmp");
+        }
+
+        // Number of rows in the log, including the ones appended but not yet committed
+        public int getRowCount() {
+            return RowLog.this.getRowCount() + rowCount;
+        }
+
+        public void append(StreamedRow row) {
+            try {
+                if (output == null) {
+                    Files.createDirectories(directory);
+                    output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segmentPath), BUFFER_SIZE));
+                }
+                RowCodec.write(row, output);
+                rowCount++;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // The template is stored with the log whenever it changed, a download builds the workbook from the latest one
+        // Positional rules tells whether the rows were validated against rules that differ by row
+        // A commit that only adds content hashes keeps the generation, the workbooks written from the log stay current
+        public void commit(byte[] templateContent, String templateHash, boolean positionalRules, Collection<String> contentHashes) throws IOException {
+            Files.createDirectories(directory);
+            boolean changed = !exists() || output != null || positionalRules != hasPositionalRules();
+            if (!templateHash.equals(index.getProperty(TEMPLATE_HASH))) {
+                changed = true;
+                Path templateTemp = directory.resolve("." + TEMPLATE + "." + UUID.randomUUID() + ".tmp");
+                try {
+                    Files.write(templateTemp, templateContent);
+                    Files.move(templateTemp, directory.resolve(TEMPLATE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(templateTemp);
+                }
+                index.setProperty(TEMPLATE_HASH, templateHash);
+            }
+
+            long generation = changed ? getGeneration() + 1 : getGeneration();
+            List<String> segments = getSegments();
+            if (output != null) {
+                output.close();
+                byteCount = output.size();
+                output = null;
+                String segmentName = String.format("%010d", generation) + SEGMENT_EXTENSION;
+                Files.move(segmentPath, directory.resolve(segmentName), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                segments.add(segmentName + ":" + rowCount + ":" + byteCount);
+            }
+            index.setProperty(GENERATION, String.valueOf(generation));
+            index.setProperty(ROW_COUNT, String.valueOf(getRowCount()));
+            index.setProperty(SEGMENTS, String.join(",", segments));
+            index.setProperty(POSITIONAL_RULES, String.valueOf(positionalRules));
+            Set<String> mergedHashes = new LinkedHashSet<>(splitList(index.getProperty(CONTENT_HASHES, "")));
+            mergedHashes.addAll(contentHashes);
+            index.setProperty(CONTENT_HASHES, String.join(",", mergedHashes));
+            writeIndex();
+            rowCount = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (output != null) {
+                output.close();
+                output = null;
+            }
+            Files.deleteIfExists(segmentPath);
+        }
+    }
+}
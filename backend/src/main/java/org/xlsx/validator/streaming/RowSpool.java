@@ -0,0 +1,84 @@
+package org.xlsx.validator.streaming;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Temporary file holding rows in {@link RowCodec} format, used to hand rows that were parsed and validated
+ * on a worker thread to the single writer of the consolidated workbook.
+ * The file is deleted when the spool is closed. Rows of small files can be spooled in memory instead.
+ */
+public class RowSpool implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private final ByteArrayOutputStream memory;
+    private DataOutputStream output;
+    private int rowCount;
+
+    public RowSpool(Path directory) throws IOException {
+        this.path = Files.createTempFile(directory, "rows-", ".spool");
+        this.memory = null;
+        this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+    }
+
+    // Keeps the rows in memory
+    public RowSpool() {
+        this.path = null;
+        this.memory = new ByteArrayOutputStream();
+        this.output = new DataOutputStream(memory);
+    }
+
+    public void append(StreamedRow row) {
+        try {
+            RowCodec.write(row, output);
+            rowCount++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void finish() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public void replay(RowHandler handler) throws IOException {
+        finish();
+        StreamedRow row = new StreamedRow();
+        InputStream source = memory != null ? new ByteArrayInputStream(memory.toByteArray()) : new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE);
+        try (DataInputStream input = new DataInputStream(source)) {
+            while (RowCodec.read(input, row)) {
+                handler.handleRow(row);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            if (path != null) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
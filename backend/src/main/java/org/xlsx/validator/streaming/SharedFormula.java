@@ -0,0 +1,161 @@
+package org.xlsx.validator.streaming;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.util.CellReference;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Master formula of a group of cells that share it, as written by Excel when a formula is filled down or across.
+ * The other cells of the group only reference the master, their formula is the master's with its relative references
+ * moved by the distance between the cells, which is what {@link #shiftTo} works out on the formula text.
+ */
+final class SharedFormula {
+
+    private static final int MAX_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+    private static final int MAX_COLUMNS = SpreadsheetVersion.EXCEL2007.getMaxColumns();
+    private static final Pattern CELL = Pattern.compile("(\\$?)([A-Za-z]{1,3})(\\$?)([0-9]+)");
+    private static final Pattern COLUMN = Pattern.compile("(\\$?)([A-Za-z]{1,3})");
+    private static final Pattern ROW = Pattern.compile("(\\$?)([0-9]+)");
+    private static final String INVALID_REFERENCE = "#REF!";
+
+    private final String formula;
+    private final int rowNum;
+    private final int column;
+
+    SharedFormula(String formula, int rowNum, int column) {
+        this.formula = formula;
+        this.rowNum = rowNum;
+        this.column = column;
+    }
+
+    // The formula of the cell at the given position in the group
+    String shiftTo(int cellRowNum, int cellColumn) {
+        return shift(formula, cellRowNum - rowNum, cellColumn - column);
+    }
+
+    // Moves the relative references of an A1 style formula, text in quotes, sheet names, function names, defined names
+    // and structured references stay as they are
+    static String shift(String formula, int rows, int columns) {
+        if (rows == 0 && columns == 0) {
+            return formula;
+        }
+        StringBuilder shifted = new StringBuilder(formula.length() + 8);
+        int i = 0;
+        while (i < formula.length()) {
+            char c = formula.charAt(i);
+            if (c == '"' || c == '\'') {
+                int end = skipQuoted(formula, i, c);
+                shifted.append(formula, i, end);
+                i = end;
+            } else if (c == '[') {
+                int end = skipBrackets(formula, i);
+                shifted.append(formula, i, end);
+                i = end;
+            } else if (isTokenChar(c)) {
+                int end = i;
+                while (end < formula.length() && isTokenChar(formula.charAt(end))) {
+                    end++;
+                }
+                String token = formula.substring(i, end);
+                char next = end < formula.length() ? formula.charAt(end) : 0;
+                if (next == '(' || next == '!' || next == '[') {
+                    // Function, sheet or table name
+                    shifted.append(token);
+                } else if (CELL.matcher(token).matches()) {
+                    shifted.append(shiftCell(token, rows, columns));
+                } else if (next == ':' && isRangeEnd(formula, end + 1, token)) {
+                    // A whole column or row range, both ends are moved here
+                    int rangeEnd = end + 1;
+                    while (rangeEnd < formula.length() && isTokenChar(formula.charAt(rangeEnd))) {
+                        rangeEnd++;
+                    }
+                    String last = formula.substring(end + 1, rangeEnd);
+                    boolean columnRange = COLUMN.matcher(token).matches();
+                    String first = columnRange ? shiftColumn(token, columns) : shiftRow(token, rows);
+                    String second = columnRange ? shiftColumn(last, columns) : shiftRow(last, rows);
+                    shifted.append(first == null || second == null ? INVALID_REFERENCE : first + ":" + second);
+                    end = rangeEnd;
+                } else {
+                    shifted.append(token);
+                }
+                i = end;
+            } else {
+                shifted.append(c);
+                i++;
+            }
+        }
+        return shifted.toString();
+    }
+
+    private static boolean isTokenChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '$' || c == '_' || c == '.' || c == '\\';
+    }
+
+    // True if the token after the colon closes a whole column range for a column token or a whole row range for a row token
+    private static boolean isRangeEnd(String formula, int start, String first) {
+        int end = start;
+        while (end < formula.length() && isTokenChar(formula.charAt(end))) {
+            end++;
+        }
+        String last = formula.substring(start, end);
+        return COLUMN.matcher(first).matches() && COLUMN.matcher(last).matches()
+                || ROW.matcher(first).matches() && ROW.matcher(last).matches();
+    }
+
+    private static String shiftCell(String token, int rows, int columns) {
+        Matcher matcher = CELL.matcher(token);
+        matcher.matches();
+        String column = shiftColumn(matcher.group(1) + matcher.group(2), columns);
+        String row = shiftRow(matcher.group(3) + matcher.group(4), rows);
+        return column == null || row == null ? INVALID_REFERENCE : column + row;
+    }
+
+    // Null if the reference moves off the sheet
+    private static String shiftColumn(String token, int columns) {
+        if (token.startsWith("$")) {
+            return token;
+        }
+        int column = CellReference.convertColStringToIndex(token) + columns;
+        return column < 0 || column >= MAX_COLUMNS ? null : CellReference.convertNumToColString(column);
+    }
+
+    private static String shiftRow(String token, int rows) {
+        if (token.startsWith("$")) {
+            return token;
+        }
+        long row = Long.parseLong(token) + rows;
+        return row < 1 || row > MAX_ROWS ? null : String.valueOf(row);
+    }
+
+    // Index after the closing quote, a doubled quote stands for the quote itself
+    private static int skipQuoted(String formula, int start, char quote) {
+        int i = start + 1;
+        while (i < formula.length()) {
+            if (formula.charAt(i) == quote) {
+                if (i + 1 < formula.length() && formula.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipBrackets(String formula, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < formula.length()) {
+            char c = formula.charAt(i++);
+            if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                break;
+            }
+        }
+        return i;
+    }
+}
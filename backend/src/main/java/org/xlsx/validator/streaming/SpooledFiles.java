@@ -0,0 +1,73 @@
+package org.xlsx.validator.streaming;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * The content files of one request, each being parsed into its own {@link RowSpool} on a worker thread.
+ * Closing waits for the workers and deletes every spool.
+ */
+public class SpooledFiles implements Closeable {
+
+    private final List<String> fileNames;
+    private final List<Future<RowSpool>> spools;
+    private final boolean[] skipped;
+
+    public SpooledFiles(List<String> fileNames, List<Future<RowSpool>> spools) {
+        this.fileNames = fileNames;
+        this.spools = spools;
+        this.skipped = new boolean[spools.size()];
+    }
+
+    // Leaves the file at the given index out of the files and spools returned, it is still cleaned up on close
+    public void skip(int index) {
+        skipped[index] = true;
+    }
+
+    // The names the files were uploaded with
+    public List<String> getFileNames() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < fileNames.size(); i++) {
+            if (!skipped[i]) {
+                names.add(fileNames.get(i));
+            }
+        }
+        return names;
+    }
+
+    // Waits for every file in upload order and rethrows the first failure
+    public List<RowSpool> await() throws Exception {
+        List<RowSpool> rowSpools = new ArrayList<>();
+        for (int i = 0; i < spools.size(); i++) {
+            if (skipped[i]) {
+                continue;
+            }
+            try {
+                rowSpools.add(spools.get(i).get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return rowSpools;
+    }
+
+    @Override
+    public void close() {
+        for (Future<RowSpool> spool : spools) {
+            try {
+                spool.get().close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                // Failed files clean up their own spool
+            }
+        }
+    }
+}
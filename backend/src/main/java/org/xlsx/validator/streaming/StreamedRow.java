@@ -0,0 +1,154 @@
+package org.xlsx.validator.streaming;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+
+import java.util.Arrays;
+
+/**
+ * A single row emitted by {@link StreamingWorkbookReader}.
+ * The same instance is reused for every row of a workbook, so handlers must not keep a reference to it.
+ */
+public final class StreamedRow {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int rowNum;
+    private int lastCellNum;
+    private CellType[] types = new CellType[INITIAL_CAPACITY];
+    private double[] numbers = new double[INITIAL_CAPACITY];
+    private String[] strings = new String[INITIAL_CAPACITY];
+    private String[] formulas = new String[INITIAL_CAPACITY];
+    private boolean[] dates = new boolean[INITIAL_CAPACITY];
+    private String[] formats = new String[INITIAL_CAPACITY];
+
+    StreamedRow() {
+        Arrays.fill(types, CellType.BLANK);
+    }
+
+    void reset(int rowNum) {
+        Arrays.fill(types, 0, lastCellNum, CellType.BLANK);
+        Arrays.fill(strings, 0, lastCellNum, null);
+        Arrays.fill(formulas, 0, lastCellNum, null);
+        Arrays.fill(dates, 0, lastCellNum, false);
+        Arrays.fill(formats, 0, lastCellNum, null);
+        this.rowNum = rowNum;
+        this.lastCellNum = 0;
+    }
+
+    // The format is the number format of the source cell, null for the General format
+    void setNumeric(int column, double value, boolean date, String format) {
+        ensureCapacity(column);
+        types[column] = CellType.NUMERIC;
+        numbers[column] = value;
+        dates[column] = date;
+        formats[column] = format;
+    }
+
+    void setString(int column, String value) {
+        ensureCapacity(column);
+        types[column] = CellType.STRING;
+        strings[column] = value;
+    }
+
+    void setBoolean(int column, boolean value) {
+        ensureCapacity(column);
+        types[column] = CellType.BOOLEAN;
+        numbers[column] = value ? 1 : 0;
+    }
+
+    void setError(int column, String value) {
+        ensureCapacity(column);
+        types[column] = CellType.ERROR;
+        strings[column] = value;
+    }
+
+    void setFormula(int column, String formula) {
+        ensureCapacity(column);
+        formulas[column] = formula;
+    }
+
+    private void ensureCapacity(int column) {
+        if (column >= types.length) {
+            int capacity = Math.max(column + 1, types.length * 2);
+            int oldCapacity = types.length;
+            types = Arrays.copyOf(types, capacity);
+            Arrays.fill(types, oldCapacity, capacity, CellType.BLANK);
+            numbers = Arrays.copyOf(numbers, capacity);
+            strings = Arrays.copyOf(strings, capacity);
+            formulas = Arrays.copyOf(formulas, capacity);
+            dates = Arrays.copyOf(dates, capacity);
+            formats = Arrays.copyOf(formats, capacity);
+        }
+        if (column >= lastCellNum) {
+            lastCellNum = column + 1;
+        }
+    }
+
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    public int getLastCellNum() {
+        return lastCellNum;
+    }
+
+    public CellType getCellType(int column) {
+        return column < lastCellNum ? types[column] : CellType.BLANK;
+    }
+
+    public double getNumericValue(int column) {
+        return numbers[column];
+    }
+
+    public boolean getBooleanValue(int column) {
+        return numbers[column] != 0;
+    }
+
+    public String getStringValue(int column) {
+        return strings[column];
+    }
+
+    public boolean isDate(int column) {
+        return column < lastCellNum && dates[column];
+    }
+
+    public String getNumberFormat(int column) {
+        return column < lastCellNum ? formats[column] : null;
+    }
+
+    public String getFormula(int column) {
+        return column < lastCellNum ? formulas[column] : null;
+    }
+
+    public boolean isEmpty() {
+        for (int i = 0; i < lastCellNum; i++) {
+            if (types[i] != CellType.BLANK || formulas[i] != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void copyValueTo(int column, Cell targetCell) {
+        String formula = getFormula(column);
+        if (formula != null) {
+            targetCell.setCellFormula(formula);
+            return;
+        }
+        switch (getCellType(column)) {
+            case NUMERIC:
+                targetCell.setCellValue(numbers[column]);
+                break;
+            case STRING:
+                targetCell.setCellValue(strings[column]);
+                break;
+            case BOOLEAN:
+                targetCell.setCellValue(getBooleanValue(column));
+                break;
+            default:
+                targetCell.setCellValue("");
+                break;
+        }
+    }
+}
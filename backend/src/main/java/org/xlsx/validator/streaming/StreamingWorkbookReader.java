@@ -0,0 +1,256 @@
+package org.xlsx.validator.streaming;
+
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads a workbook with POI's event API and hands its rows to a {@link RowHandler} one at a time,
+ * so memory stays flat regardless of the number of rows.
+ * Unlike {@link org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler} the cell values are kept typed
+ * instead of being formatted to strings.
+ */
+public class StreamingWorkbookReader {
+
+    public void read(Path path, RowHandler handler) throws Exception {
+        OPCPackage opcPackage = OPCPackage.open(path.toFile(), PackageAccess.READ);
+        try {
+            read(opcPackage, handler);
+        } finally {
+            opcPackage.revert();
+        }
+    }
+
+    // Reads a workbook that is held in memory
+    public void read(byte[] content, RowHandler handler) throws Exception {
+        OPCPackage opcPackage = OPCPackage.open(new ByteArrayInputStream(content));
+        try {
+            read(opcPackage, handler);
+        } finally {
+            opcPackage.revert();
+        }
+    }
+
+    private void read(OPCPackage opcPackage, RowHandler handler) throws Exception {
+        XSSFReader reader = new XSSFReader(opcPackage);
+        ReadOnlySharedStringsTable sharedStrings = new ReadOnlySharedStringsTable(opcPackage, false);
+        StylesTable styles = reader.getStylesTable();
+        StreamedRow row = new StreamedRow();
+        XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+        while (sheets.hasNext()) {
+            try (InputStream sheetStream = sheets.next()) {
+                String sheetName = sheets.getSheetName();
+                handler.startSheet(sheetName);
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new SheetHandler(sharedStrings, styles, row, handler));
+                parser.parse(new InputSource(sheetStream));
+                handler.endSheet(sheetName);
+            }
+        }
+    }
+
+    private static final class SheetHandler extends DefaultHandler {
+
+        private static final byte UNKNOWN_STYLE = 0;
+        private static final byte DATE_STYLE = 1;
+        private static final byte PLAIN_STYLE = 2;
+
+        private final ReadOnlySharedStringsTable sharedStrings;
+        private final StylesTable styles;
+        private final StreamedRow row;
+        private final RowHandler handler;
+        private final byte[] dateStyles;
+        private final String[] styleFormats;
+
+        private final StringBuilder value = new StringBuilder();
+        private final StringBuilder formula = new StringBuilder();
+        // Master formulas of the shared formula groups of the sheet by their index
+        private final Map<String, SharedFormula> sharedFormulas = new HashMap<>();
+        private String sharedIndex;
+        private boolean valueOpen;
+        private boolean formulaOpen;
+        private boolean inlineStringOpen;
+
+        private int rowNum = -1;
+        private int column = -1;
+        private String cellType;
+        private int cellStyle;
+
+        SheetHandler(ReadOnlySharedStringsTable sharedStrings, StylesTable styles, StreamedRow row, RowHandler handler) {
+            this.sharedStrings = sharedStrings;
+            this.styles = styles;
+            this.row = row;
+            this.handler = handler;
+            this.dateStyles = new byte[styles == null ? 0 : styles.getNumCellStyles()];
+            this.styleFormats = new String[dateStyles.length];
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if (!XSSFRelation.NS_SPREADSHEETML.equals(uri)) {
+                return;
+            }
+            switch (localName) {
+                case "row":
+                    String rowReference = attributes.getValue("r");
+                    rowNum = rowReference == null ? rowNum + 1 : Integer.parseInt(rowReference) - 1;
+                    column = -1;
+                    row.reset(rowNum);
+                    break;
+                case "c":
+                    String cellReference = attributes.getValue("r");
+                    column = cellReference == null ? column + 1 : columnIndex(cellReference);
+                    cellType = attributes.getValue("t");
+                    String style = attributes.getValue("s");
+                    cellStyle = style == null ? 0 : Integer.parseInt(style);
+                    value.setLength(0);
+                    formula.setLength(0);
+                    sharedIndex = null;
+                    break;
+                case "v":
+                    valueOpen = true;
+                    break;
+                case "f":
+                    formulaOpen = true;
+                    if ("shared".equals(attributes.getValue("t"))) {
+                        sharedIndex = attributes.getValue("si");
+                    }
+                    break;
+                case "is":
+                    inlineStringOpen = true;
+                    break;
+                case "t":
+                    valueOpen = inlineStringOpen;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            if (!XSSFRelation.NS_SPREADSHEETML.equals(uri)) {
+                return;
+            }
+            switch (localName) {
+                case "v":
+                case "t":
+                    valueOpen = false;
+                    break;
+                case "f":
+                    formulaOpen = false;
+                    break;
+                case "is":
+                    inlineStringOpen = false;
+                    break;
+                case "c":
+                    endCell();
+                    break;
+                case "row":
+                    handler.handleRow(row);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (valueOpen) {
+                value.append(ch, start, length);
+            } else if (formulaOpen) {
+                formula.append(ch, start, length);
+            }
+        }
+
+        private void endCell() {
+            if (sharedIndex != null) {
+                // The first cell of a shared formula holds its text, the others get it moved to their position
+                if (formula.length() > 0) {
+                    sharedFormulas.put(sharedIndex, new SharedFormula(formula.toString(), rowNum, column));
+                } else {
+                    SharedFormula sharedFormula = sharedFormulas.get(sharedIndex);
+                    if (sharedFormula != null) {
+                        formula.append(sharedFormula.shiftTo(rowNum, column));
+                    }
+                }
+            }
+            if (formula.length() > 0) {
+                row.setFormula(column, formula.toString());
+            }
+            if (cellType == null || "n".equals(cellType)) {
+                if (value.length() > 0) {
+                    boolean date = isDateStyle(cellStyle);
+                    String format = cellStyle < styleFormats.length ? styleFormats[cellStyle] : null;
+                    row.setNumeric(column, Double.parseDouble(value.toString()), date, format);
+                }
+                return;
+            }
+            switch (cellType) {
+                case "s":
+                    // A shared string cell without an index is blank, like in XSSFWorkbook
+                    if (value.length() > 0) {
+                        int index = Integer.parseInt(value.toString());
+                        row.setString(column, sharedStrings.getItemAt(index).getString());
+                    }
+                    break;
+                case "inlineStr":
+                case "str":
+                    row.setString(column, value.toString());
+                    break;
+                case "b":
+                    row.setBoolean(column, value.length() > 0 && value.charAt(0) == '1');
+                    break;
+                case "e":
+                    row.setError(column, value.toString());
+                    break;
+                default:
+                    throw new RuntimeException("Unsupported cell type '" + cellType + "' in row " + (rowNum + 1));
+            }
+        }
+
+        // Looks each style up once and keeps its number format, unless it is General
+        private boolean isDateStyle(int styleIndex) {
+            if (styleIndex >= dateStyles.length) {
+                return false;
+            }
+            if (dateStyles[styleIndex] == UNKNOWN_STYLE) {
+                XSSFCellStyle style = styles.getStyleAt(styleIndex);
+                boolean isDate = style != null && DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString());
+                dateStyles[styleIndex] = isDate ? DATE_STYLE : PLAIN_STYLE;
+                if (style != null && style.getDataFormat() != 0) {
+                    styleFormats[styleIndex] = style.getDataFormatString();
+                }
+            }
+            return dateStyles[styleIndex] == DATE_STYLE;
+        }
+
+        private static int columnIndex(String cellReference) {
+            int column = 0;
+            for (int i = 0; i < cellReference.length(); i++) {
+                char c = cellReference.charAt(i);
+                if (c < 'A' || c > 'Z') {
+                    break;
+                }
+                column = column * 26 + (c - 'A' + 1);
+            }
+            return column - 1;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package org.xlsx.validator.streaming;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Enumeration;
+
+/**
+ * What an xlsx declares about itself in its zip central directory, read without inflating any entry.
+ * The sizes are only declared and a crafted file can lie about them, POI's own inflate ratio check still guards the
+ * actual read.
+ */
+public class WorkbookInspection {
+
+    private static final String SHARED_STRINGS = "sharedStrings.xml";
+    private static final String STYLES = "styles.xml";
+    // Small parts of repetitive XML legitimately compress very well, only larger entries count towards the ratio
+    private static final long MIN_RATIO_ENTRY_SIZE = 1024 * 1024;
+
+    private final int entryCount;
+    private final long uncompressedSize;
+    private final double maxCompressionRatio;
+    private final long sharedStringsSize;
+    private final long stylesSize;
+
+    private WorkbookInspection(int entryCount, long uncompressedSize, double maxCompressionRatio, long sharedStringsSize, long stylesSize) {
+        this.entryCount = entryCount;
+        this.uncompressedSize = uncompressedSize;
+        this.maxCompressionRatio = maxCompressionRatio;
+        this.sharedStringsSize = sharedStringsSize;
+        this.stylesSize = stylesSize;
+    }
+
+    public static WorkbookInspection inspect(Path path) throws IOException {
+        try (ZipFile zipFile = new ZipFile(path.toFile())) {
+            return inspect(zipFile);
+        }
+    }
+
+    // Reads the central directory of a workbook that is held in memory
+    public static WorkbookInspection inspect(byte[] content) throws IOException {
+        try (ZipFile zipFile = new ZipFile(new SeekableInMemoryByteChannel(content))) {
+            return inspect(zipFile);
+        }
+    }
+
+    private static WorkbookInspection inspect(ZipFile zipFile) {
+        int entryCount = 0;
+        long uncompressedSize = 0;
+        double maxCompressionRatio = 0;
+        long sharedStringsSize = 0;
+        long stylesSize = 0;
+        Enumeration<ZipArchiveEntry> entries = zipFile.getEntries();
+        while (entries.hasMoreElements()) {
+            ZipArchiveEntry entry = entries.nextElement();
+            entryCount++;
+            long size = Math.max(0, entry.getSize());
+            uncompressedSize += size;
+            if (size >= MIN_RATIO_ENTRY_SIZE && entry.getCompressedSize() > 0) {
+                maxCompressionRatio = Math.max(maxCompressionRatio, (double) size / entry.getCompressedSize());
+            }
+            if (entry.getName().endsWith(SHARED_STRINGS)) {
+                sharedStringsSize += size;
+            } else if (entry.getName().endsWith(STYLES)) {
+                stylesSize += size;
+            }
+        }
+        return new WorkbookInspection(entryCount, uncompressedSize, maxCompressionRatio, sharedStringsSize, stylesSize);
+    }
+
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    // Sum of the declared sizes of all entries
+    public long getUncompressedSize() {
+        return uncompressedSize;
+    }
+
+    // Highest ratio of declared to compressed size of a single entry of at least 1 MB
+    public double getMaxCompressionRatio() {
+        return maxCompressionRatio;
+    }
+
+    // The shared strings and styles are the parts the streaming reader holds in memory, sheets are streamed
+    public long getSharedStringsSize() {
+        return sharedStringsSize;
+    }
+
+    public long getStylesSize() {
+        return stylesSize;
+    }
+}
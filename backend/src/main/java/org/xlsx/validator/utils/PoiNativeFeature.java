@@ -0,0 +1,88 @@
+package org.xlsx.validator.utils;
+
+import org.graalvm.nativeimage.hosted.Feature;
+import org.graalvm.nativeimage.hosted.RuntimeClassInitialization;
+import org.graalvm.nativeimage.hosted.RuntimeReflection;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Native image configuration for POI. XMLBeans looks up the types generated from the OOXML schemas by name, so every
+ * class of poi-ooxml-lite is registered for reflection instead of only those a sample workload happens to touch.
+ * Registered with {@code --features} in application.properties, it is not used on the JVM.
+ */
+public class PoiNativeFeature implements Feature {
+
+    private static final String TYPE_SYSTEM_HOLDER = "org.apache.poi.schemas.ooxml.system.ooxml.TypeSystemHolder";
+    private static final String XMLBEANS_VALUES = "org/apache/xmlbeans/impl/values/";
+    // The schema types load their type system from resources through the class loader, which has to happen at runtime
+    private static final String[] SCHEMA_PACKAGES = {
+            "org.openxmlformats.schemas", "org.apache.poi.schemas", "com.microsoft.schemas", "org.etsi.uri", "org.w3.x2000"
+    };
+    // Random generators, fonts, colours and the buffer cleaner must not be captured in the image heap
+    private static final String[] RUNTIME_INITIALIZED = {
+            "org.apache.poi.util.RandomSingleton",
+            "org.apache.poi.ss.util.SheetUtil",
+            "org.apache.poi.sl.draw.DrawPaint",
+            "org.apache.poi.poifs.nio.CleanerUtil"
+    };
+
+    @Override
+    public void afterRegistration(AfterRegistrationAccess access) {
+        RuntimeClassInitialization.initializeAtRunTime(SCHEMA_PACKAGES);
+        RuntimeClassInitialization.initializeAtRunTime(Arrays.stream(RUNTIME_INITIALIZED)
+                .map(access::findClassByName)
+                .toArray(Class<?>[]::new));
+    }
+
+    @Override
+    public void beforeAnalysis(BeforeAnalysisAccess access) {
+        Class<?> typeSystemHolder = access.findClassByName(TYPE_SYSTEM_HOLDER);
+        registerClasses(access, typeSystemHolder, SCHEMA_PACKAGES);
+        // Values of the built-in schema types are created through their constructors as well
+        registerClasses(access, access.findClassByName("org.apache.xmlbeans.XmlBeans"), XMLBEANS_VALUES);
+        RuntimeReflection.register(typeSystemHolder.getFields());
+    }
+
+    // Registers the classes under the given packages of the jar the anchor class was loaded from
+    private static void registerClasses(BeforeAnalysisAccess access, Class<?> anchor, String... packages) {
+        String[] prefixes = Arrays.stream(packages)
+                .map(name -> name.endsWith("/") ? name : name.replace('.', '/') + "/")
+                .toArray(String[]::new);
+        try (ZipFile jar = new ZipFile(locate(anchor).toFile())) {
+            Enumeration<? extends ZipEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.endsWith(".class") && Arrays.stream(prefixes).anyMatch(name::startsWith)) {
+                    Class<?> type = access.findClassByName(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+                    if (type != null) {
+                        RuntimeReflection.register(type);
+                        RuntimeReflection.register(type.getDeclaredConstructors());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to list the classes of " + anchor.getName(), e);
+        }
+    }
+
+    private static Path locate(Class<?> type) {
+        CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+        if (codeSource == null) {
+            throw new IllegalStateException("Unable to locate the jar of " + type.getName());
+        }
+        try {
+            return Paths.get(codeSource.getLocation().toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Unable to locate the jar of " + type.getName(), e);
+        }
+    }
+}
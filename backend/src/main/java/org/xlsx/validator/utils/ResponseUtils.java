@@ -1,59 +1,99 @@
 package org.xlsx.validator.utils;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.jboss.resteasy.plugins.providers.multipart.MultipartFormDataInput;
+import org.xlsx.validator.models.ConsolidationJob;
+import org.xlsx.validator.models.OpenFile;
+import org.xlsx.validator.models.StoredFile;
+import org.xlsx.validator.models.ValidationSummary;
+import org.xlsx.validator.services.AdmissionService;
+import org.xlsx.validator.services.ConsolidationJobService;
+import org.xlsx.validator.services.ConsolidationMetrics;
+import org.xlsx.validator.services.ConsolidationService;
+import org.xlsx.validator.services.DirectoryIndexService;
 import org.xlsx.validator.services.FileService;
 import org.xlsx.validator.services.ResponseService;
+import org.xlsx.validator.services.TemplateCacheService;
+import org.xlsx.validator.services.WorkspaceService;
+import org.xlsx.validator.services.WorkspaceService.Workspace;
 import org.xlsx.validator.services.XlsxService;
+import org.xlsx.validator.validation.TemplateMetadata;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import java.io.*;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 @Singleton
 public class ResponseUtils {
     @ConfigProperty(name = "consolidation.directory")
     String CONSOLIDATION_DIR;
-    @ConfigProperty(name = "temp.directory")
-    String TEMP_DIR;
     @ConfigProperty(name = "template.directory")
     String TEMPLATE_DIR;
     private final static String CONSOLIDATED_EXTENSION = "Consolidated-";
+    private final static String JOBS_PATH = "/api/consolidation/jobs/";
+    private final static long RETRY_AFTER_SECONDS = 10;
+    @ConfigProperty(name = "listing.page-size", defaultValue = "100")
+    int PAGE_SIZE;
+    @ConfigProperty(name = "listing.max-page-size", defaultValue = "1000")
+    int MAX_PAGE_SIZE;
+    @ConfigProperty(name = "validation.max-errors", defaultValue = "1000")
+    long MAX_VALIDATION_ERRORS;
     @Inject
     FileService fileService;
     @Inject
     ResponseService responseService;
     @Inject
+    TemplateCacheService templateCacheService;
+    @Inject
+    ConsolidationService consolidationService;
+    @Inject
+    ConsolidationJobService consolidationJobService;
+    @Inject
+    ConsolidationMetrics metrics;
+    @Inject
     XlsxService xlsxService;
+    @Inject
+    DirectoryIndexService directoryIndex;
+    @Inject
+    AdmissionService admissionService;
+    @Inject
+    WorkspaceService workspaceService;
+    @Inject
+    ObjectMapper objectMapper;
 
-    public Response listFiles(String dir) {
-        try (Stream<Path> stream = Files.list(Paths.get(dir))) {
-            Set<String> files = stream
-                    .filter(file -> !Files.isDirectory(file))
-                    .map(Path::getFileName)
-                    .map(Path::toString)
-                    .map(fileName -> "\"" + fileName + "\"")
-                    .collect(Collectors.toSet());
-            return responseService.responseOk(files);
-        } catch (Exception e) {
-            return responseService.serverException(e);
+    // Names and entries come from the directory index, sorted by name
+    public Response listFiles(String dir, Integer offset, Integer limit) {
+        if (!isValidPage(offset, limit)) {
+            return responseService.badRequest("offset cannot be negative and limit needs to be greater than 0");
         }
+        return responseService.responseOk(directoryIndex.getNames(dir, offset != null ? offset : 0, limit != null ? limit : Integer.MAX_VALUE));
+    }
+
+    public Response listFileEntries(String dir, Integer offset, Integer limit) {
+        if (!isValidPage(offset, limit)) {
+            return responseService.badRequest("offset cannot be negative and limit needs to be greater than 0");
+        }
+        return responseService.responseOk(directoryIndex.list(dir, offset != null ? offset : 0, limit != null ? Math.min(limit, MAX_PAGE_SIZE) : PAGE_SIZE));
+    }
+
+    private static boolean isValidPage(Integer offset, Integer limit) {
+        return (offset == null || offset >= 0) && (limit == null || limit > 0);
     }
 
     public Response deleteFile(String fileName, String directoryPath) {
+        if (directoryPath.equals(CONSOLIDATION_DIR)) {
+            return deleteConsolidatedFile(fileName);
+        }
         File file = fileService.getFile(directoryPath, fileName);
         if (file == null) {
             return responseService.badRequest("Unable to find file with name: " + fileName);
@@ -61,28 +101,79 @@ public class ResponseUtils {
         if (!file.delete()) {
             return responseService.badRequest("Unable to delete file with name: " + fileName);
         }
+        directoryIndex.refresh(directoryPath, fileName);
+        if (directoryPath.equals(TEMPLATE_DIR)) {
+            templateCacheService.invalidate(file);
+        }
         return responseService.responseOk("Successfully deleted file: " + fileName);
     }
 
-    public Response downloadFile(String fileName, String directoryPath) {
+    private Response deleteConsolidatedFile(String fileName) {
+        try {
+            // Removes the row log together with the workbook written from it
+            if (!consolidationService.delete(fileName)) {
+                return responseService.badRequest("Unable to find file with name: " + fileName);
+            }
+            return responseService.responseOk("Successfully deleted file: " + fileName);
+        } catch (Exception e) {
+            return responseService.serverException(e);
+        }
+    }
+
+    public Response downloadFile(String fileName, String directoryPath, Request request, HttpHeaders headers) {
         File fileDownload = fileService.getFile(directoryPath, fileName);
-        if (!fileDownload.exists()) {
+        if (fileDownload == null) {
             return responseService.badRequest("Unable to find file with name: " + fileName);
         }
-        return responseService.downloadResponse(fileName, fileDownload);
+        try {
+            return responseService.downloadResponse(OpenFile.open(fileDownload.toPath()), request, headers);
+        } catch (NoSuchFileException e) {
+            // Deleted since it was looked up
+            return responseService.badRequest("Unable to find file with name: " + fileName);
+        } catch (IOException e) {
+            return responseService.serverException(e);
+        }
+    }
+
+    // A consolidated file that was split into parts is downloaded part by part or as one zip of all parts
+    public Response downloadConsolidatedFile(String fileName, boolean zip, Request request, HttpHeaders headers) {
+        List<OpenFile> files;
+        try {
+            // Consolidated files are written out from their row log on demand
+            files = consolidationService.openConsolidatedFiles(fileName);
+        } catch (Exception e) {
+            return responseService.serverException(e);
+        }
+        if (files.isEmpty()) {
+            return responseService.badRequest("Unable to find file with name: " + fileName);
+        }
+        if (zip) {
+            return responseService.zipResponse(StringUtils.removeEnd(fileName, ".xlsx") + ".zip", files);
+        }
+        if (files.size() > 1) {
+            files.forEach(OpenFile::close);
+            return responseService.badRequest("File '" + fileName + "' is split into " + files.size() + " parts, download them one by one or all at once with zip=true: "
+                    + files.stream().map(OpenFile::getName).collect(Collectors.joining(", ")));
+        }
+        return responseService.downloadResponse(files.get(0), request, headers);
     }
 
     public Response uploadFiles(String directoryPath, MultipartFormDataInput input) {
         try {
             List<String> filesToUpload = fileService.getFileNames(input);
-            validateAndUploadFiles(filesToUpload, input, directoryPath);
+            List<StoredFile> storedFiles = validateAndUploadFiles(filesToUpload, input, directoryPath);
+            if (directoryPath.equals(TEMPLATE_DIR)) {
+                storedFiles.forEach(storedFile -> templateCacheService.invalidate(storedFile.getFile()));
+            }
+            // The hash was computed while streaming the upload, so the index does not read the file again for it
+            storedFiles.forEach(storedFile -> directoryIndex.refresh(directoryPath, storedFile.getFile().getName(), storedFile.getContentHash()));
             return responseService.responseOk(filesToUpload);
         } catch (Exception e) {
             return responseService.serverException(e);
         }
     }
 
-    public Response consolidateFiles(MultipartFormDataInput input, String templateName, Boolean isMerged) {
+    public Response consolidateFiles(MultipartFormDataInput input, String templateName, Boolean isMerged, boolean async) {
         if (StringUtils.isEmpty(templateName)) {
             return responseService.badRequest("Template name cannot be empty");
         } else if (!templateName.endsWith(".xlsx")) {
@@ -93,74 +184,168 @@ public class ResponseUtils {
 
         // Find the consolidated and template files
         String consolidatedFilename = CONSOLIDATED_EXTENSION + templateName;
-        File consolidatedFile = fileService.getFile(CONSOLIDATION_DIR, consolidatedFilename);
-        boolean tempConsolidationCreated = false;
-        List<String> filesToMerge = new ArrayList<>();
+        // Uploaded files live in a workspace of their own, which is deleted once the request or its job is done
+        Workspace workspace = workspaceService.create();
 
         try {
-            // Upload each file in a temp dir
+            // Keep small files in memory and write larger ones to the workspace, hashing the content on the way
             List<String> filesToUpload = fileService.getFileNames(input);
-            List<String> filePaths = validateAndUploadFiles(filesToUpload, input, TEMP_DIR);
-            filesToMerge.addAll(filePaths);
-
+            List<StoredFile> storedFiles = metrics.time(ConsolidationMetrics.UPLOAD, templateName, () -> validateAndUploadFiles(filesToUpload, input, workspace));
 
             // Validate that the template file exists
             File templateFile = fileService.getFile(TEMPLATE_DIR, templateName);
             if (templateFile == null) {
+                workspace.close();
                 return responseService.badRequest("Template file: '" + templateName + "' does not exist!");
             }
 
             // If isMerged is true, find the consolidated file for that template - fail if no consolidated file found
-            if (consolidatedFile == null) {
-                if (isMerged) {
-                    cleanupTempFiles(consolidatedFilename, null, false, filesToMerge);
-                    return responseService.badRequest("Unable to merge as consolidated file does not exist for template: " + templateName);
-                } else {
-                    consolidatedFile = fileService.writeFile(CONSOLIDATION_DIR, InputStream.nullInputStream(), consolidatedFilename);
-                    fileService.copyFileUsingStream(templateFile, consolidatedFile);
-                    tempConsolidationCreated = true;
-                }
+            if (isMerged && !consolidationService.exists(consolidatedFilename)) {
+                workspace.close();
+                return responseService.badRequest("Unable to merge as consolidated file does not exist for template: " + templateName);
             }
 
-            // Validate template and extract headers
-            Sheet templateWorksheet = xlsxService.validateTemplate(templateFile.getAbsolutePath());
-            Map<Integer, String> templateHeaders = xlsxService.getHeadersFromFirstRow(templateWorksheet);
+            // Reject zip bombs and files that could never fit into memory before anything is parsed
+            long memoryEstimate;
+            try {
+                memoryEstimate = admissionService.inspect(storedFiles);
+            } catch (AdmissionService.TooLargeException e) {
+                workspace.close();
+                return responseService.payloadTooLarge(e.getMessage());
+            } catch (IllegalArgumentException e) {
+                workspace.close();
+                return responseService.badRequest(e.getMessage());
+            }
 
-            // Start copying the consolidated file items to the temp template first if it exists
-            for (String filePath : filesToMerge) {
-                XSSFWorkbook consolidatedWorkbook = xlsxService.copyFileUsingTemplate(filePath, consolidatedFile.getAbsolutePath(), templateHeaders);
-                OutputStream outputStream = new FileOutputStream(consolidatedFile.getAbsolutePath());
-                consolidatedWorkbook.write(outputStream);
-                consolidatedWorkbook.close();
+            // Long merges can run in the background, the caller polls the job instead of holding the connection
+            if (async) {
+                ConsolidationJob job = consolidationJobService.submit(templateFile, consolidatedFilename, storedFiles, isMerged, memoryEstimate, workspace::close);
+                return responseService.accepted(job, URI.create(JOBS_PATH + job.getId()));
             }
 
-            // Cleanup temp files and exit
-            // Consolidated File is no longer temporary at this point
-            cleanupTempFiles(consolidatedFilename, consolidatedFile, false, filesToMerge);
+            // Concurrent requests for the same template are queued and appended in one group commit
+            // The rows are added to the template's row log, the workbook is written out when it is downloaded
+            // Files whose content was merged before are skipped
+            List<String> skippedFiles = consolidationService.consolidate(templateFile, consolidatedFilename, storedFiles, isMerged, memoryEstimate);
+
+            // Cleanup the workspace and exit
+            workspace.close();
+            if (!skippedFiles.isEmpty()) {
+                return responseService.responseOk("Successfully created consolidated report: " + consolidatedFilename
+                        + ", skipped files that were already merged: " + String.join(", ", skippedFiles));
+            }
             return responseService.responseOk("Successfully created consolidated report: " + consolidatedFilename);
+        } catch (RejectedExecutionException e) {
+            workspace.close();
+            // Either the job queue is full or the memory budget stayed used up
+            return responseService.serviceUnavailable(e.getMessage(), RETRY_AFTER_SECONDS);
         } catch (Exception e) {
-            cleanupTempFiles(consolidatedFilename, consolidatedFile, tempConsolidationCreated, filesToMerge);
+            workspace.close();
             return responseService.serverException(e);
         }
     }
 
-    private List<String> validateAndUploadFiles(List<String> filesToUpload, MultipartFormDataInput input, String directory) throws Exception {
-        boolean inValidFileType = filesToUpload.stream().anyMatch(f -> !f.endsWith(".xlsx"));
-        if (inValidFileType) {
-            throw new RuntimeException("Cannot process files that are not of type 'xlsx'!");
+    public Response validateFiles(MultipartFormDataInput input, String templateName, Integer maxErrors) {
+        if (!templateName.endsWith(".xlsx")) {
+            return responseService.badRequest("Template file: '" + templateName + "' needs to be of type '.xlsx'!");
         }
+        long violationLimit = maxErrors != null ? maxErrors : MAX_VALIDATION_ERRORS;
+        if (violationLimit <= 0) {
+            return responseService.badRequest("maxErrors needs to be greater than 0");
+        }
+
+        Workspace workspace = workspaceService.create();
+        try {
+            File templateFile = fileService.getFile(TEMPLATE_DIR, templateName);
+            if (templateFile == null) {
+                workspace.close();
+                return responseService.badRequest("Template file: '" + templateName + "' does not exist!");
+            }
+            TemplateMetadata template = templateCacheService.getTemplate(templateFile);
+            List<StoredFile> storedFiles = validateAndUploadFiles(fileService.getFileNames(input), input, workspace);
+            long memoryEstimate;
+            try {
+                memoryEstimate = admissionService.inspect(storedFiles);
+            } catch (AdmissionService.TooLargeException e) {
+                workspace.close();
+                return responseService.payloadTooLarge(e.getMessage());
+            } catch (IllegalArgumentException e) {
+                workspace.close();
+                return responseService.badRequest(e.getMessage());
+            }
+            // The files are parsed while the report is streamed, so the memory stays reserved until the stream ends
+            AdmissionService.Reservation reservation = admissionService.admit(memoryEstimate);
+
+            // One line per violation followed by a summary line per file, the limit counts the violations of all files
+            return responseService.ndjson(output -> {
+                try {
+                    long violations = 0;
+                    for (StoredFile storedFile : storedFiles) {
+                        String fileName = storedFile.getName();
+                        ValidationSummary summary;
+                        if (violations >= violationLimit) {
+                            summary = new ValidationSummary(fileName, 0, 0, true, null);
+                        } else {
+                            try {
+                                summary = xlsxService.validateContentFile(storedFile, template, violationLimit - violations,
+                                        violation -> writeLine(output, violation));
+                            } catch (UncheckedIOException e) {
+                                // The client went away, there is nobody left to report to
+                                throw e.getCause();
+                            } catch (Exception e) {
+                                summary = new ValidationSummary(fileName, 0, 0, false, StringUtils.isNotEmpty(e.getMessage()) ? e.getMessage() : String.valueOf(e.getCause()));
+                            }
+                        }
+                        violations += summary.getViolations();
+                        writeLine(output, summary);
+                        output.flush();
+                    }
+                } finally {
+                    reservation.close();
+                    workspace.close();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            workspace.close();
+            // The memory budget stayed used up
+            return responseService.serviceUnavailable(e.getMessage(), RETRY_AFTER_SECONDS);
+        } catch (Exception e) {
+            workspace.close();
+            return responseService.serverException(e);
+        }
+    }
+
+    private void writeLine(OutputStream output, Object line) {
+        try {
+            output.write(objectMapper.writeValueAsBytes(line));
+            output.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public Response getConsolidationJob(String jobId) {
+        ConsolidationJob job = consolidationJobService.getJob(jobId);
+        if (job == null) {
+            return responseService.notFound("Unable to find consolidation job with id: " + jobId);
+        }
+        return responseService.responseOk(job);
+    }
+
+    private List<StoredFile> validateAndUploadFiles(List<String> filesToUpload, MultipartFormDataInput input, String directory) throws Exception {
+        validateFileTypes(filesToUpload);
         return fileService.uploadFiles(directory, input);
     }
 
-    private void cleanupTempFiles(String consolidatedFilename, File consolidatedFile, boolean tempConsolidationCreated, List<String> filesToMerge) {
-        if (tempConsolidationCreated) {
-            boolean delete = consolidatedFile.delete();
-            System.out.println("Deleted temp consolidated file " + consolidatedFilename + ": " + delete);
+    private List<StoredFile> validateAndUploadFiles(List<String> filesToUpload, MultipartFormDataInput input, Workspace workspace) throws Exception {
+        validateFileTypes(filesToUpload);
+        return fileService.uploadFiles(workspace, input);
+    }
+
+    private static void validateFileTypes(List<String> filesToUpload) {
+        boolean inValidFileType = filesToUpload.stream().anyMatch(f -> !f.endsWith(".xlsx"));
+        if (inValidFileType) {
+            throw new RuntimeException("Cannot process files that are not of type 'xlsx'!");
         }
-        filesToMerge.forEach(filePath -> {
-            File tempFile = fileService.getFileByPath(filePath);
-            boolean delete = tempFile.delete();
-            System.out.println("Deleted temp file " + filePath + ": " + delete);
-        });
     }
 }
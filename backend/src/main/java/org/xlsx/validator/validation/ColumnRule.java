@@ -0,0 +1,161 @@
+package org.xlsx.validator.validation;
+
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.DataValidationConstraint.OperatorType;
+import org.xlsx.validator.streaming.StreamedRow;
+
+import java.util.Set;
+
+/**
+ * A single data validation of the template compiled for one column.
+ * The checks mirror {@link org.apache.poi.ss.formula.DataValidationEvaluator} but read the primitive values of a
+ * {@link StreamedRow} directly, so checking a cell does not allocate.
+ */
+abstract class ColumnRule {
+
+    private final String name;
+    private final int firstRow;
+    private final int lastRow;
+    private final boolean emptyCellAllowed;
+
+    ColumnRule(String name, int firstRow, int lastRow, boolean emptyCellAllowed) {
+        this.name = name;
+        this.firstRow = firstRow;
+        this.lastRow = lastRow;
+        this.emptyCellAllowed = emptyCellAllowed;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getFirstRow() {
+        return firstRow;
+    }
+
+    int getLastRow() {
+        return lastRow;
+    }
+
+    boolean appliesTo(int rowNum) {
+        return rowNum >= firstRow && rowNum <= lastRow;
+    }
+
+    boolean isValid(StreamedRow row, int column, RowValidator validator) {
+        CellType cellType = row.getCellType(column);
+        if (cellType == CellType.BLANK || (cellType == CellType.STRING && row.getStringValue(column).isEmpty())) {
+            return emptyCellAllowed;
+        }
+        return isValidValue(row, column, validator);
+    }
+
+    abstract boolean isValidValue(StreamedRow row, int column, RowValidator validator);
+
+    static boolean isValidNumber(int operator, double value, double lower, double upper) {
+        switch (operator) {
+            case OperatorType.BETWEEN:
+                return value >= lower && value <= upper;
+            case OperatorType.NOT_BETWEEN:
+                return value < lower || value > upper;
+            case OperatorType.EQUAL:
+                return value == lower;
+            case OperatorType.NOT_EQUAL:
+                return value != lower;
+            case OperatorType.GREATER_THAN:
+                return value > lower;
+            case OperatorType.LESS_THAN:
+                return value < lower;
+            case OperatorType.GREATER_OR_EQUAL:
+                return value >= lower;
+            case OperatorType.LESS_OR_EQUAL:
+                return value <= lower;
+            default:
+                return true;
+        }
+    }
+
+    // Whole number, decimal, date and time validations
+    static final class NumericRule extends ColumnRule {
+
+        private final boolean wholeNumber;
+        private final int operator;
+        private final double lower;
+        private final double upper;
+
+        NumericRule(String name, int firstRow, int lastRow, boolean emptyCellAllowed, boolean wholeNumber, int operator, double lower, double upper) {
+            super(name, firstRow, lastRow, emptyCellAllowed);
+            this.wholeNumber = wholeNumber;
+            this.operator = operator;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        @Override
+        boolean isValidValue(StreamedRow row, int column, RowValidator validator) {
+            if (row.getCellType(column) != CellType.NUMERIC) {
+                return false;
+            }
+            double value = row.getNumericValue(column);
+            if (!isValidNumber(operator, value, lower, upper)) {
+                return false;
+            }
+            return !wholeNumber || Double.compare(value, (int) value) == 0;
+        }
+    }
+
+    static final class TextLengthRule extends ColumnRule {
+
+        private final int operator;
+        private final double lower;
+        private final double upper;
+
+        TextLengthRule(String name, int firstRow, int lastRow, boolean emptyCellAllowed, int operator, double lower, double upper) {
+            super(name, firstRow, lastRow, emptyCellAllowed);
+            this.operator = operator;
+            this.lower = lower;
+            this.upper = upper;
+        }
+
+        @Override
+        boolean isValidValue(StreamedRow row, int column, RowValidator validator) {
+            if (row.getCellType(column) != CellType.STRING) {
+                return false;
+            }
+            return isValidNumber(operator, row.getStringValue(column).length(), lower, upper);
+        }
+    }
+
+    // Explicit list validations, matched case-insensitively like Excel does
+    static final class ListRule extends ColumnRule {
+
+        private final Set<String> values;
+
+        ListRule(String name, int firstRow, int lastRow, boolean emptyCellAllowed, Set<String> values) {
+            super(name, firstRow, lastRow, emptyCellAllowed);
+            this.values = values;
+        }
+
+        @Override
+        boolean isValidValue(StreamedRow row, int column, RowValidator validator) {
+            return row.getCellType(column) == CellType.STRING && values.contains(row.getStringValue(column));
+        }
+    }
+
+    // Custom formulas and bounds that reference cells, evaluated by POI against a scratch copy of the row
+    static final class FormulaRule extends ColumnRule {
+
+        FormulaRule(String name, int firstRow, int lastRow, boolean emptyCellAllowed) {
+            super(name, firstRow, lastRow, emptyCellAllowed);
+        }
+
+        @Override
+        boolean isValid(StreamedRow row, int column, RowValidator validator) {
+            return validator.isValidFormulaCell(row, column);
+        }
+
+        @Override
+        boolean isValidValue(StreamedRow row, int column, RowValidator validator) {
+            return validator.isValidFormulaCell(row, column);
+        }
+    }
+}
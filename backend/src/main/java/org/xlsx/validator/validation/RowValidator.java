@@ -0,0 +1,117 @@
+package org.xlsx.validator.validation;
+
+import org.apache.poi.ss.formula.DataValidationEvaluator;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.usermodel.XSSFFormulaEvaluator;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.xlsx.validator.streaming.StreamedRow;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Checks streamed rows against compiled {@link ValidationRules}. Not thread safe, use one per request.
+ * Rules that need POI's formula evaluator get a scratch copy of the template, which is only loaded the first time
+ * such a rule is hit. The copy only holds the checked row, rules whose formulas reach other data rows are refused
+ * when the rules are compiled.
+ */
+public class RowValidator implements Closeable {
+
+    private final ValidationRules rules;
+    private XSSFWorkbook probeWorkbook;
+    private Sheet probeSheet;
+    private XSSFFormulaEvaluator formulaEvaluator;
+    private DataValidationEvaluator validationEvaluator;
+    private Row probeRow;
+    private int rowNum;
+
+    RowValidator(ValidationRules rules) {
+        this.rules = rules;
+    }
+
+    public boolean isValidRow(StreamedRow row, int rowNum) {
+        this.rowNum = rowNum;
+        try {
+            for (int j = 0; j < row.getLastCellNum(); j++) {
+                if (row.getCellType(j) == CellType.BLANK && row.getFormula(j) == null) {
+                    continue;
+                }
+                ColumnRule rule = rules.getRule(j, rowNum);
+                if (rule != null && !rule.isValid(row, j, this)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            releaseProbeRow();
+        }
+    }
+
+    // Checks every cell instead of stopping at the first invalid one, returns the number of invalid cells
+    public int validateRow(StreamedRow row, int rowNum, ViolationHandler handler) {
+        this.rowNum = rowNum;
+        int violations = 0;
+        try {
+            for (int j = 0; j < row.getLastCellNum(); j++) {
+                if (row.getCellType(j) == CellType.BLANK && row.getFormula(j) == null) {
+                    continue;
+                }
+                ColumnRule rule = rules.getRule(j, rowNum);
+                if (rule != null && !rule.isValid(row, j, this)) {
+                    handler.violation(row, j, rule.getName());
+                    violations++;
+                }
+            }
+            return violations;
+        } finally {
+            releaseProbeRow();
+        }
+    }
+
+    boolean isValidFormulaCell(StreamedRow row, int column) {
+        if (probeRow == null) {
+            // Formulas may reference other cells of the row, so the whole row is copied
+            probeRow = getProbeSheet().createRow(rowNum);
+            for (int j = 0; j < row.getLastCellNum(); j++) {
+                if (row.getCellType(j) != CellType.BLANK || row.getFormula(j) != null) {
+                    row.copyValueTo(j, probeRow.createCell(j));
+                }
+            }
+        }
+        return validationEvaluator.isValidCell(new CellReference(probeSheet.getSheetName(), rowNum, column, false, false));
+    }
+
+    private Sheet getProbeSheet() {
+        if (probeSheet == null) {
+            try {
+                probeWorkbook = new XSSFWorkbook(new ByteArrayInputStream(rules.getTemplateBytes()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            probeSheet = probeWorkbook.getSheetAt(0);
+            formulaEvaluator = new XSSFFormulaEvaluator(probeWorkbook);
+            validationEvaluator = new DataValidationEvaluator(probeWorkbook, formulaEvaluator);
+        }
+        return probeSheet;
+    }
+
+    private void releaseProbeRow() {
+        if (probeRow != null) {
+            probeSheet.removeRow(probeRow);
+            formulaEvaluator.clearAllCachedResultValues();
+            probeRow = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (probeWorkbook != null) {
+            probeWorkbook.close();
+        }
+    }
+}
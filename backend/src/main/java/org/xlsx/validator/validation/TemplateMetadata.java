@@ -0,0 +1,74 @@
+package org.xlsx.validator.validation;
+
+import java.util.Map;
+
+/**
+ * Everything a consolidation needs from a template, parsed once and shared between requests.
+ */
+public final class TemplateMetadata {
+
+    private final String name;
+    private final long lastModified;
+    private final long size;
+    private final String contentHash;
+    private final byte[] content;
+    private final int sheetCount;
+    private final int firstDataRowNum;
+    private final Map<Integer, String> headers;
+    private final ValidationRules validationRules;
+
+    public TemplateMetadata(String name, long lastModified, long size, String contentHash, byte[] content, int sheetCount,
+                            int firstDataRowNum, Map<Integer, String> headers, ValidationRules validationRules) {
+        this.name = name;
+        this.lastModified = lastModified;
+        this.size = size;
+        this.contentHash = contentHash;
+        this.content = content;
+        this.sheetCount = sheetCount;
+        this.firstDataRowNum = firstDataRowNum;
+        this.headers = Map.copyOf(headers);
+        this.validationRules = validationRules;
+    }
+
+    public TemplateMetadata withLastModified(long lastModified) {
+        return new TemplateMetadata(name, lastModified, size, contentHash, content, sheetCount, firstDataRowNum, headers, validationRules);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    // Raw bytes of the template, callers must not modify them
+    public byte[] getContent() {
+        return content;
+    }
+
+    public int getSheetCount() {
+        return sheetCount;
+    }
+
+    // Index of the first row after the rows of the template itself
+    public int getFirstDataRowNum() {
+        return firstDataRowNum;
+    }
+
+    public Map<Integer, String> getHeaders() {
+        return headers;
+    }
+
+    public ValidationRules getValidationRules() {
+        return validationRules;
+    }
+}
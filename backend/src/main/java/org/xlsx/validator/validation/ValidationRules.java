@@ -0,0 +1,257 @@
+package org.xlsx.validator.validation;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.formula.EvaluationName;
+import org.apache.poi.ss.formula.FormulaParseException;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.ptg.AbstractFunctionPtg;
+import org.apache.poi.ss.formula.ptg.AreaPtgBase;
+import org.apache.poi.ss.formula.ptg.NamePtg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.Pxg;
+import org.apache.poi.ss.formula.ptg.RefPtgBase;
+import org.apache.poi.ss.usermodel.DataValidationConstraint;
+import org.apache.poi.ss.usermodel.DataValidationConstraint.OperatorType;
+import org.apache.poi.ss.usermodel.DataValidationConstraint.ValidationType;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFDataValidation;
+import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The data validations of a template compiled once into a column indexed rule table.
+ * Instances are immutable and can be shared between requests, each request checks rows through its own
+ * {@link RowValidator}.
+ */
+public final class ValidationRules {
+
+    private static final ColumnRule[] NO_RULES = new ColumnRule[0];
+    private static final int LAST_ROW = SpreadsheetVersion.EXCEL2007.getLastRowIndex();
+    private static final int LAST_COLUMN = SpreadsheetVersion.EXCEL2007.getLastColumnIndex();
+    // Functions whose cells are only known once they are evaluated
+    private static final Set<String> REFERENCE_FUNCTIONS = Set.of("OFFSET", "INDIRECT");
+
+    private final ColumnRule[][] rulesByColumn;
+    private final byte[] templateBytes;
+    private final int ruleCount;
+
+    private ValidationRules(ColumnRule[][] rulesByColumn, byte[] templateBytes, int ruleCount) {
+        this.rulesByColumn = rulesByColumn;
+        this.templateBytes = templateBytes;
+        this.ruleCount = ruleCount;
+    }
+
+    public static ValidationRules compile(XSSFWorkbook templateWorkbook, byte[] templateBytes, int firstDataRowNum) {
+        XSSFSheet sheet = templateWorkbook.getSheetAt(0);
+        XSSFEvaluationWorkbook evaluationWorkbook = XSSFEvaluationWorkbook.create(templateWorkbook);
+        List<List<ColumnRule>> columns = new ArrayList<>();
+        int ruleCount = 0;
+        boolean hasFormulaRules = false;
+        for (XSSFDataValidation validation : sheet.getDataValidations()) {
+            for (CellRangeAddress region : validation.getRegions().getCellRangeAddresses()) {
+                int firstRow = region.getFirstRow() < 0 ? 0 : region.getFirstRow();
+                int lastRow = region.getLastRow() < 0 ? LAST_ROW : region.getLastRow();
+                ColumnRule rule = compileRule(validation, firstRow, lastRow);
+                if (rule == null) {
+                    continue;
+                }
+                if (rule instanceof ColumnRule.FormulaRule) {
+                    checkRowReferences(evaluationWorkbook, sheet.getSheetName(), validation, region, firstRow, firstDataRowNum, rule.getName());
+                    hasFormulaRules = true;
+                }
+                int firstColumn = region.getFirstColumn() < 0 ? 0 : region.getFirstColumn();
+                int lastColumn = region.getLastColumn() < 0 ? LAST_COLUMN : region.getLastColumn();
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    while (columns.size() <= column) {
+                        columns.add(new ArrayList<>());
+                    }
+                    // Rules keep the template order, the first one covering a cell is the one that applies
+                    columns.get(column).add(rule);
+                }
+                ruleCount++;
+            }
+        }
+        ColumnRule[][] rulesByColumn = new ColumnRule[columns.size()][];
+        for (int column = 0; column < rulesByColumn.length; column++) {
+            rulesByColumn[column] = columns.get(column).toArray(NO_RULES);
+        }
+        return new ValidationRules(rulesByColumn, hasFormulaRules ? templateBytes : null, ruleCount);
+    }
+
+    private static ColumnRule compileRule(XSSFDataValidation validation, int firstRow, int lastRow) {
+        DataValidationConstraint constraint = validation.getValidationConstraint();
+        boolean emptyCellAllowed = validation.getEmptyCellAllowed();
+        int operator = constraint.getOperator();
+        switch (constraint.getValidationType()) {
+            case ValidationType.ANY:
+                return null;
+            case ValidationType.LIST:
+                String[] listValues = constraint.getExplicitListValues();
+                if (listValues == null) {
+                    return new ColumnRule.FormulaRule("list", firstRow, lastRow, emptyCellAllowed);
+                }
+                Set<String> values = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+                values.addAll(Arrays.asList(listValues));
+                return new ColumnRule.ListRule("list", firstRow, lastRow, emptyCellAllowed, values);
+            case ValidationType.FORMULA:
+                return new ColumnRule.FormulaRule("custom", firstRow, lastRow, emptyCellAllowed);
+            default:
+                break;
+        }
+
+        String name = ruleName(constraint.getValidationType());
+        Double lower = parseBound(constraint.getFormula1());
+        boolean hasUpper = operator == OperatorType.BETWEEN || operator == OperatorType.NOT_BETWEEN;
+        Double upper = hasUpper ? parseBound(constraint.getFormula2()) : Double.valueOf(0);
+        if (lower == null || upper == null) {
+            // Bounds that are formulas or cell references are left to POI's evaluator
+            return new ColumnRule.FormulaRule(name, firstRow, lastRow, emptyCellAllowed);
+        }
+        if (constraint.getValidationType() == ValidationType.TEXT_LENGTH) {
+            return new ColumnRule.TextLengthRule(name, firstRow, lastRow, emptyCellAllowed, operator, lower, upper);
+        }
+        boolean wholeNumber = constraint.getValidationType() == ValidationType.INTEGER;
+        return new ColumnRule.NumericRule(name, firstRow, lastRow, emptyCellAllowed, wholeNumber, operator, lower, upper);
+    }
+
+    // Formula rules are evaluated on a copy of the template that only holds the checked row, so a formula reaching
+    // into other data rows, like COUNTIF($A:$A,A2)=1, would only ever see empty cells and pass. Templates with such
+    // rules are refused instead.
+    private static void checkRowReferences(XSSFEvaluationWorkbook workbook, String sheetName, XSSFDataValidation validation,
+                                           CellRangeAddress region, int firstRow, int firstDataRowNum, String name) {
+        DataValidationConstraint constraint = validation.getValidationConstraint();
+        FormulaType formulaType = constraint.getValidationType() == ValidationType.LIST ? FormulaType.DATAVALIDATION_LIST : FormulaType.CELL;
+        for (String formula : new String[]{constraint.getFormula1(), constraint.getFormula2()}) {
+            if (formula == null || formula.isEmpty()) {
+                continue;
+            }
+            boolean otherRows;
+            try {
+                Ptg[] ptgs = FormulaParser.parse(formula, workbook, formulaType, 0);
+                otherRows = referencesOtherRows(workbook, sheetName, ptgs, firstRow, firstDataRowNum, new HashSet<>());
+            } catch (FormulaParseException e) {
+                throw new RuntimeException("Invalid " + name + " validation of " + region.formatAsString() + ": unable to read formula '" + formula + "'", e);
+            }
+            if (otherRows) {
+                throw new RuntimeException("Invalid " + name + " validation of " + region.formatAsString() + ": formula '" + formula
+                        + "' references other data rows, only the validated row and the template rows above the data are supported");
+            }
+        }
+    }
+
+    // Relative rows are relative to the first row of the validated region, a data row sees them moved by its distance to it
+    private static boolean referencesOtherRows(XSSFEvaluationWorkbook workbook, String sheetName, Ptg[] ptgs,
+                                               int baseRow, int firstDataRowNum, Set<String> names) {
+        for (Ptg ptg : ptgs) {
+            if (ptg instanceof Pxg && (((Pxg) ptg).getExternalWorkbookNumber() > 0 || !sheetName.equalsIgnoreCase(((Pxg) ptg).getSheetName()))) {
+                continue;
+            }
+            if (ptg instanceof RefPtgBase) {
+                RefPtgBase ref = (RefPtgBase) ptg;
+                if (!isOwnOrTemplateRows(ref.getRow(), ref.isRowRelative(), ref.getRow(), ref.isRowRelative(), baseRow, firstDataRowNum)) {
+                    return true;
+                }
+            } else if (ptg instanceof AreaPtgBase) {
+                AreaPtgBase area = (AreaPtgBase) ptg;
+                if (!isOwnOrTemplateRows(area.getFirstRow(), area.isFirstRowRelative(), area.getLastRow(), area.isLastRowRelative(), baseRow, firstDataRowNum)) {
+                    return true;
+                }
+            } else if (ptg instanceof NamePtg) {
+                EvaluationName definedName = workbook.getName((NamePtg) ptg);
+                // Relative rows of a name depend on where it was defined, a base row of -1 counts them as other rows
+                if (definedName.hasFormula() && names.add(definedName.getNameText())
+                        && referencesOtherRows(workbook, sheetName, definedName.getNameDefinition(), -1, firstDataRowNum, names)) {
+                    return true;
+                }
+            } else if (ptg instanceof AbstractFunctionPtg && REFERENCE_FUNCTIONS.contains(((AbstractFunctionPtg) ptg).getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // True if the rows only ever resolve to the checked row itself or to rows of the template above the data
+    private static boolean isOwnOrTemplateRows(int firstRow, boolean firstRelative, int lastRow, boolean lastRelative, int baseRow, int firstDataRowNum) {
+        if (firstRelative && lastRelative) {
+            return firstRow == baseRow && lastRow == baseRow;
+        }
+        return !firstRelative && !lastRelative && Math.max(firstRow, lastRow) < firstDataRowNum;
+    }
+
+    private static String ruleName(int validationType) {
+        switch (validationType) {
+            case ValidationType.INTEGER:
+                return "whole";
+            case ValidationType.DECIMAL:
+                return "decimal";
+            case ValidationType.DATE:
+                return "date";
+            case ValidationType.TIME:
+                return "time";
+            case ValidationType.TEXT_LENGTH:
+                return "textLength";
+            default:
+                return "unknown";
+        }
+    }
+
+    private static Double parseBound(String formula) {
+        if (formula == null) {
+            return null;
+        }
+        try {
+            return Double.valueOf(formula.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    ColumnRule getRule(int column, int rowNum) {
+        if (column >= rulesByColumn.length) {
+            return null;
+        }
+        for (ColumnRule rule : rulesByColumn[column]) {
+            if (rule.appliesTo(rowNum)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    // Whether every row from the given index on is checked by the same rules, so a row can be validated
+    // before its final position in the consolidated sheet is known
+    public boolean isUniformFrom(int rowNum) {
+        for (ColumnRule[] rules : rulesByColumn) {
+            for (ColumnRule rule : rules) {
+                if (rule.getLastRow() >= rowNum) {
+                    if (rule.getFirstRow() > rowNum || rule.getLastRow() < LAST_ROW) {
+                        return false;
+                    }
+                    break;
+                }
+            }
+        }
+        return true;
+    }
+
+    byte[] getTemplateBytes() {
+        return templateBytes;
+    }
+
+    public int getRuleCount() {
+        return ruleCount;
+    }
+
+    public RowValidator newValidator() {
+        return new RowValidator(this);
+    }
+}
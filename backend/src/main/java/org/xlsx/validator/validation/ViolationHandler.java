@@ -0,0 +1,11 @@
+package org.xlsx.validator.validation;
+
+import org.xlsx.validator.streaming.StreamedRow;
+
+/**
+ * Receives every cell of a row that fails a data validation, see {@link RowValidator#validateRow}.
+ */
+public interface ViolationHandler {
+
+    void violation(StreamedRow row, int column, String rule);
+}
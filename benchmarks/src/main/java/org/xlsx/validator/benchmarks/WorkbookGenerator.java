@@ -0,0 +1,84 @@
+package org.xlsx.validator.benchmarks;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.DataValidationConstraint;
+import org.apache.poi.ss.usermodel.DataValidationHelper;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.CellRangeAddressList;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Writes synthetic templates and content workbooks for the benchmarks.
+ * Content rows mix strings, whole and decimal numbers, dates and booleans and all pass the template's data validations.
+ */
+public final class WorkbookGenerator {
+
+    public static final String[] HEADERS = {"Name", "Quantity", "Price", "Date", "Code", "Active"};
+    private static final String[] NAMES = {"Alpha", "Beta", "Gamma", "Delta"};
+    private static final int LAST_ROW = 1048575;
+    // Excel stores date bounds as serial numbers, 36526 is 2000-01-01
+    private static final String MIN_DATE = "36526";
+
+    private WorkbookGenerator() {
+    }
+
+    public static void writeTemplate(Path path) throws IOException {
+        try (XSSFWorkbook workbook = new XSSFWorkbook()) {
+            XSSFSheet sheet = workbook.createSheet("Template");
+            writeHeaders(sheet);
+            DataValidationHelper helper = sheet.getDataValidationHelper();
+            sheet.addValidationData(helper.createValidation(helper.createExplicitListConstraint(NAMES), new CellRangeAddressList(1, LAST_ROW, 0, 0)));
+            sheet.addValidationData(helper.createValidation(helper.createIntegerConstraint(DataValidationConstraint.OperatorType.BETWEEN, "1", "1000"), new CellRangeAddressList(1, LAST_ROW, 1, 1)));
+            sheet.addValidationData(helper.createValidation(helper.createDecimalConstraint(DataValidationConstraint.OperatorType.GREATER_OR_EQUAL, "0", null), new CellRangeAddressList(1, LAST_ROW, 2, 2)));
+            sheet.addValidationData(helper.createValidation(helper.createDateConstraint(DataValidationConstraint.OperatorType.GREATER_THAN, MIN_DATE, null, null), new CellRangeAddressList(1, LAST_ROW, 3, 3)));
+            sheet.addValidationData(helper.createValidation(helper.createTextLengthConstraint(DataValidationConstraint.OperatorType.LESS_OR_EQUAL, "8", null), new CellRangeAddressList(1, LAST_ROW, 4, 4)));
+            try (OutputStream outputStream = Files.newOutputStream(path)) {
+                workbook.write(outputStream);
+            }
+        }
+    }
+
+    // Streams the rows to disk, so even a million rows are generated with a small heap
+    public static void writeContent(Path path, int rows) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+        try {
+            Sheet sheet = workbook.createSheet("Content");
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+            writeHeaders(sheet);
+            for (int i = 1; i <= rows; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(NAMES[i % NAMES.length]);
+                row.createCell(1).setCellValue(1 + i % 1000);
+                row.createCell(2).setCellValue((i % 10000) / 100.0);
+                Cell date = row.createCell(3);
+                date.setCellValue(40000 + i % 5000);
+                date.setCellStyle(dateStyle);
+                row.createCell(4).setCellValue("C" + (i % 100000));
+                row.createCell(5).setCellValue(i % 2 == 0);
+            }
+            try (OutputStream outputStream = Files.newOutputStream(path)) {
+                workbook.write(outputStream);
+            }
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    private static void writeHeaders(Sheet sheet) {
+        Row headerRow = sheet.createRow(0);
+        for (int i = 0; i < HEADERS.length; i++) {
+            headerRow.createCell(i).setCellValue(HEADERS[i]);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.xlsx.validator.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Builds and sends the requests of the REST endpoints under test.
+ */
+public class AppClient {
+
+    private static final String XLSX = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+    private final URI base;
+
+    public AppClient(int port) {
+        this.base = URI.create("http://localhost:" + port);
+    }
+
+    // Bodies are read to the end, so that downloads are measured in full
+    public HttpResponse<Void> send(HttpRequest request) throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.discarding());
+    }
+
+    public HttpResponse<Void> sendExpectingSuccess(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<Void> response = send(request);
+        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            throw new IllegalStateException(request.method() + " " + request.uri() + " returned " + response.statusCode());
+        }
+        return response;
+    }
+
+    public HttpRequest get(String path) {
+        return HttpRequest.newBuilder(base.resolve(path)).GET().build();
+    }
+
+    public HttpRequest uploadTemplate(String fileName, byte[] template) {
+        return upload("/api/template/upload", fileName, template);
+    }
+
+    public HttpRequest consolidate(String templateName, String fileName, byte[] content) {
+        return upload("/api/consolidation/upload?templateName=" + templateName + "&isMerged=false", fileName, content);
+    }
+
+    public HttpRequest downloadConsolidation(String templateName) {
+        return get("/api/consolidation/download/Consolidated-" + templateName);
+    }
+
+    private HttpRequest upload(String path, String fileName, byte[] file) {
+        String boundary = "loadtest-" + UUID.randomUUID();
+        ByteArrayOutputStream body = new ByteArrayOutputStream(file.length + 512);
+        byte[] head = ("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: " + XLSX + "\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        body.write(head, 0, head.length);
+        body.write(file, 0, file.length);
+        body.write(tail, 0, tail.length);
+        return HttpRequest.newBuilder(base.resolve(path))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+    }
+
+    // Sets the zip archive comment, which changes the bytes of the workbook without changing what it contains.
+    // Identical content would be skipped by the application as already consolidated.
+    public static byte[] withComment(byte[] zip, String comment) {
+        int endOfCentralDirectory = zip.length - 22;
+        if (endOfCentralDirectory < 0 || zip[endOfCentralDirectory] != 0x50 || zip[endOfCentralDirectory + 1] != 0x4b
+                || zip[endOfCentralDirectory + 2] != 0x05 || zip[endOfCentralDirectory + 3] != 0x06) {
+            throw new IllegalArgumentException("Workbook already has an archive comment");
+        }
+        byte[] commentBytes = comment.getBytes(StandardCharsets.US_ASCII);
+        byte[] result = Arrays.copyOf(zip, zip.length + commentBytes.length);
+        result[zip.length - 2] = (byte) commentBytes.length;
+        result[zip.length - 1] = (byte) (commentBytes.length >> 8);
+        System.arraycopy(commentBytes, 0, result, zip.length, commentBytes.length);
+        return result;
+    }
+}
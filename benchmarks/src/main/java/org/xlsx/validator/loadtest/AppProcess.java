@@ -0,0 +1,124 @@
+package org.xlsx.validator.loadtest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The application under test, started as its own process from the jar or the native executable packaged with the
+ * loadtest profile. Its resident set size is sampled in the background, so that each scenario can report its peak.
+ */
+public class AppProcess implements Closeable {
+
+    private static final long SAMPLE_INTERVAL_MS = 50;
+
+    private final Process process;
+    private final long startedAt;
+    private final Path logFile;
+    private final ScheduledExecutorService sampler;
+    private final AtomicLong peakRss = new AtomicLong(-1);
+
+    private AppProcess(Process process, long startedAt, Path logFile) {
+        this.process = process;
+        this.startedAt = startedAt;
+        this.logFile = logFile;
+        this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "rss-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(() -> peakRss.accumulateAndGet(readRss(), Math::max), 0, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // Template, consolidation and temp directories are created under the data directory, options such as -Xmx or -D overrides
+    // are passed on. Anything but a jar is run as a native executable.
+    public static AppProcess start(Path app, int port, Path dataDir, List<String> options) throws IOException {
+        Path templateDir = Files.createDirectories(dataDir.resolve("templates"));
+        Path consolidationDir = Files.createDirectories(dataDir.resolve("consolidations"));
+        Path tempDir = Files.createDirectories(dataDir.resolve("tmp"));
+        List<String> command = new ArrayList<>();
+        boolean jar = app.toString().endsWith(".jar");
+        command.add(jar ? Paths.get(System.getProperty("java.home"), "bin", "java").toString() : app.toString());
+        command.addAll(options);
+        command.add("-Dquarkus.profile=loadtest");
+        command.add("-Dquarkus.http.port=" + port);
+        command.add("-Dtemp.directory=" + tempDir + "/");
+        if (jar) {
+            command.add("-jar");
+            command.add(app.toString());
+        }
+        Path logFile = dataDir.resolve("app.log");
+        ProcessBuilder builder = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile.toFile());
+        // The directories are read by the app as path prefixes, so they need the trailing separator
+        builder.environment().put("TEMPLATE_DIR", templateDir + "/");
+        builder.environment().put("CONSOLIDATION_DIR", consolidationDir + "/");
+        long startedAt = System.nanoTime();
+        return new AppProcess(builder.start(), startedAt, logFile);
+    }
+
+    // Time from starting the process to the first successful response
+    public Duration awaitReady(AppClient client, String probePath, Duration timeout) throws Exception {
+        long deadline = startedAt + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("The application exited with " + process.exitValue() + ", see " + logFile);
+            }
+            try {
+                if (client.send(client.get(probePath)).statusCode() == 200) {
+                    return Duration.ofNanos(System.nanoTime() - startedAt);
+                }
+            } catch (IOException e) {
+                // Not listening yet
+            }
+            Thread.sleep(20);
+        }
+        throw new IllegalStateException("The application did not start within " + timeout.toSeconds() + "s, see " + logFile);
+    }
+
+    public void resetPeakRss() {
+        peakRss.set(readRss());
+    }
+
+    // Highest resident set size in bytes since the last reset, -1 where /proc is not available
+    public long getPeakRss() {
+        return peakRss.get();
+    }
+
+    private long readRss() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc", String.valueOf(process.pid()), "status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Not on Linux or the process is gone
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() {
+        sampler.shutdownNow();
+        process.destroy();
+        try {
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package org.xlsx.validator.loadtest;
+
+import org.xlsx.validator.benchmarks.WorkbookGenerator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.http.HttpRequest;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * Drives concurrent upload, consolidate, list and download traffic against the application packaged with the
+ * loadtest profile and reports throughput, latency percentiles, error rate and peak RSS for each scenario.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar org.xlsx.validator.loadtest.LoadTest [options] [-D...|-X...]},
+ * options are {@code --app <quarkus-run.jar>}, {@code --port}, {@code --requests} per scenario, {@code --concurrency},
+ * {@code --rows} per uploaded workbook, {@code --scenarios} as a comma separated list, {@code --label} and
+ * {@code --out <csv>} to append the results to. JVM options are passed on to the application.
+ */
+public class LoadTest {
+
+    private static final String TEMPLATE_NAME = "loadtest.xlsx";
+    private static final List<String> SCENARIOS = Arrays.asList("upload", "consolidate", "list", "download", "mixed");
+    private static final String[] LISTINGS = {"/api/template/list", "/api/template/files", "/api/consolidation/list", "/api/consolidation/files"};
+
+    private final AppClient client;
+    private final AppProcess app;
+    private final byte[] template;
+    private final byte[] content;
+    // Template names have to be unique, an upload under an existing name is refused
+    private final AtomicInteger uploadCount = new AtomicInteger();
+
+    private LoadTest(AppClient client, AppProcess app, byte[] template, byte[] content) {
+        this.client = client;
+        this.app = app;
+        this.template = template;
+        this.content = content;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("app", "../backend/target/loadtest-app/quarkus-run.jar");
+        options.put("port", "18090");
+        options.put("requests", "200");
+        options.put("concurrency", "8");
+        options.put("rows", "200");
+        options.put("scenarios", String.join(",", SCENARIOS));
+        options.put("label", "run");
+        options.put("out", "");
+        List<String> jvmOptions = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("-D") || args[i].startsWith("-X")) {
+                jvmOptions.add(args[i]);
+            } else if (args[i].startsWith("--") && options.containsKey(args[i].substring(2)) && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + options.keySet());
+            }
+        }
+        List<String> scenarios = Arrays.asList(options.get("scenarios").split(","));
+        for (String scenario : scenarios) {
+            if (!SCENARIOS.contains(scenario)) {
+                throw new IllegalArgumentException("Unknown scenario " + scenario + ", expected one of " + SCENARIOS);
+            }
+        }
+        int requests = Integer.parseInt(options.get("requests"));
+        int concurrency = Integer.parseInt(options.get("concurrency"));
+        int port = Integer.parseInt(options.get("port"));
+
+        Path dataDir = Files.createTempDirectory("loadtest-");
+        try {
+            byte[] template = generate(dataDir.resolve("template.xlsx"), -1);
+            byte[] content = generate(dataDir.resolve("content.xlsx"), Integer.parseInt(options.get("rows")));
+            List<ScenarioResult> results = new ArrayList<>();
+            try (AppProcess app = AppProcess.start(Paths.get(options.get("app")).toAbsolutePath(), port, dataDir.resolve("app"), jvmOptions)) {
+                AppClient client = new AppClient(port);
+                app.awaitReady(client, LISTINGS[0], Duration.ofSeconds(60));
+                LoadTest loadTest = new LoadTest(client, app, template, content);
+                loadTest.setUp();
+                System.out.println(ScenarioResult.tableHeader());
+                for (String scenario : scenarios) {
+                    ScenarioResult result = loadTest.run(scenario, requests, concurrency);
+                    System.out.println(result.toTableRow());
+                    results.add(result);
+                }
+            }
+            if (!options.get("out").isEmpty()) {
+                writeCsv(Paths.get(options.get("out")), options.get("label"), results);
+            }
+        } finally {
+            deleteRecursively(dataDir);
+        }
+    }
+
+    // The template every scenario works against and a first consolidation, so that downloads have something to serve
+    private void setUp() throws Exception {
+        client.sendExpectingSuccess(client.uploadTemplate(TEMPLATE_NAME, template));
+        client.sendExpectingSuccess(consolidate(0));
+    }
+
+    private ScenarioResult run(String scenario, int requests, int concurrency) throws Exception {
+        switch (scenario) {
+            case "upload":
+                return run(scenario, requests, concurrency, n -> uploadTemplate());
+            case "consolidate":
+                return run(scenario, requests, concurrency, this::consolidate);
+            case "list":
+                return run(scenario, requests, concurrency, this::list);
+            case "download":
+                return run(scenario, requests, concurrency, n -> download());
+            default:
+                // Mostly reads, with a consolidation in every five requests and a template upload in every ten
+                return run(scenario, requests, concurrency, n -> {
+                    switch (n % 10) {
+                        case 0:
+                        case 5:
+                            return consolidate(n);
+                        case 1:
+                            return uploadTemplate();
+                        case 2:
+                        case 6:
+                        case 8:
+                            return download();
+                        default:
+                            return list(n);
+                    }
+                });
+        }
+    }
+
+    private ScenarioResult run(String scenario, int requests, int concurrency, IntFunction<HttpRequest> requestFactory) throws Exception {
+        long[] latencies = new long[requests];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+        Map<Integer, Integer> statuses = new ConcurrentHashMap<>();
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        try {
+            app.resetPeakRss();
+            long start = System.nanoTime();
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < concurrency; i++) {
+                workers.add(pool.submit(() -> {
+                    for (int n = next.getAndIncrement(); n < requests; n = next.getAndIncrement()) {
+                        HttpRequest request = requestFactory.apply(n);
+                        long requestStart = System.nanoTime();
+                        int status = 0;
+                        try {
+                            status = client.send(request).statusCode();
+                        } catch (IOException | InterruptedException e) {
+                            // Counted as status 0
+                        }
+                        latencies[n] = System.nanoTime() - requestStart;
+                        statuses.merge(status, 1, Integer::sum);
+                        if (status < 200 || status >= 300) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+            return new ScenarioResult(scenario, concurrency, latencies, errors.get(), System.nanoTime() - start, app.getPeakRss(), statuses);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private HttpRequest uploadTemplate() {
+        return client.uploadTemplate("loadtest-" + uploadCount.incrementAndGet() + ".xlsx", template);
+    }
+
+    private HttpRequest consolidate(int n) {
+        return client.consolidate(TEMPLATE_NAME, "content-" + n + ".xlsx", AppClient.withComment(content, UUID.randomUUID().toString()));
+    }
+
+    private HttpRequest list(int n) {
+        return client.get(LISTINGS[n % LISTINGS.length]);
+    }
+
+    private HttpRequest download() {
+        return client.downloadConsolidation(TEMPLATE_NAME);
+    }
+
+    // A template for negative row counts
+    static byte[] generate(Path path, int rows) throws IOException {
+        if (rows < 0) {
+            WorkbookGenerator.writeTemplate(path);
+        } else {
+            WorkbookGenerator.writeContent(path, rows);
+        }
+        return Files.readAllBytes(path);
+    }
+
+    private static void writeCsv(Path out, String label, List<ScenarioResult> results) throws IOException {
+        boolean exists = Files.exists(out);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out, StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            if (!exists) {
+                writer.println(ScenarioResult.CSV_HEADER);
+            }
+            for (ScenarioResult result : results) {
+                writer.println(result.toCsvRow(label));
+            }
+        }
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.xlsx.validator.loadtest;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Throughput, latency percentiles, errors and peak RSS of one scenario.
+ */
+public class ScenarioResult {
+
+    public static final String CSV_HEADER = "label,scenario,concurrency,requests,errors,error_rate,throughput,p50_ms,p95_ms,p99_ms,peak_rss_mb,statuses";
+    private static final double MS = 1_000_000;
+    private static final double MB = 1024 * 1024;
+
+    private final String scenario;
+    private final int concurrency;
+    private final long[] latencies;
+    private final int errors;
+    private final long durationNanos;
+    private final long peakRss;
+    private final Map<Integer, Integer> statuses;
+
+    // Latencies in nanoseconds, in any order; status 0 counts requests that failed without a response
+    public ScenarioResult(String scenario, int concurrency, long[] latencies, int errors, long durationNanos, long peakRss, Map<Integer, Integer> statuses) {
+        this.scenario = scenario;
+        this.concurrency = concurrency;
+        this.latencies = latencies.clone();
+        Arrays.sort(this.latencies);
+        this.errors = errors;
+        this.durationNanos = durationNanos;
+        this.peakRss = peakRss;
+        this.statuses = new TreeMap<>(statuses);
+    }
+
+    public double getThroughput() {
+        return latencies.length / (durationNanos / 1e9);
+    }
+
+    public double getErrorRate() {
+        return latencies.length == 0 ? 0 : (double) errors / latencies.length;
+    }
+
+    // Nearest rank percentile in milliseconds
+    public double getPercentile(double percentile) {
+        if (latencies.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * latencies.length);
+        return latencies[Math.max(0, rank - 1)] / MS;
+    }
+
+    public static String tableHeader() {
+        return String.format("%-12s %5s %8s %7s %9s %9s %9s %9s %9s  %s",
+                "scenario", "conc", "requests", "errors", "req/s", "p50 ms", "p95 ms", "p99 ms", "RSS MB", "statuses");
+    }
+
+    public String toTableRow() {
+        return String.format("%-12s %5d %8d %7d %9.1f %9.1f %9.1f %9.1f %9s  %s",
+                scenario, concurrency, latencies.length, errors, getThroughput(),
+                getPercentile(50), getPercentile(95), getPercentile(99), formatRss(), formatStatuses());
+    }
+
+    public String toCsvRow(String label) {
+        return String.format("%s,%s,%d,%d,%d,%.4f,%.2f,%.2f,%.2f,%.2f,%s,%s",
+                label, scenario, concurrency, latencies.length, errors, getErrorRate(), getThroughput(),
+                getPercentile(50), getPercentile(95), getPercentile(99), formatRss(), formatStatuses());
+    }
+
+    private String formatRss() {
+        return peakRss < 0 ? "n/a" : String.format("%.0f", peakRss / MB);
+    }
+
+    private String formatStatuses() {
+        return statuses.entrySet().stream()
+                .map(entry -> entry.getKey() + "x" + entry.getValue())
+                .collect(Collectors.joining(" "));
+    }
+}
@@ -0,0 +1,124 @@
+package org.xlsx.validator.loadtest;
+
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Measures how fast a new instance of the application becomes useful: the time from starting the process to the
+ * first successful response, and the latency of the first consolidation compared to the second one. Each run starts
+ * a fresh process with a template already in its template directory, like a replica that was just scaled out.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar org.xlsx.validator.loadtest.StartupTest [options] [-D...|-X...]},
+ * options are {@code --app <quarkus-run.jar or native executable>}, {@code --port}, {@code --runs}, {@code --rows}
+ * per uploaded workbook, {@code --label} and {@code --out <csv>} to append the results to. Other options are passed
+ * on to the application, e.g. {@code -Dtemplate.cache.warm-up=true}.
+ */
+public class StartupTest {
+
+    private static final String TEMPLATE_NAME = "startup.xlsx";
+    private static final String CSV_HEADER = "label,run,startup_ms,first_consolidation_ms,second_consolidation_ms,rss_mb";
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("app", "../backend/target/loadtest-app/quarkus-run.jar");
+        options.put("port", "18090");
+        options.put("runs", "5");
+        options.put("rows", "200");
+        options.put("label", "run");
+        options.put("out", "");
+        List<String> appOptions = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("-D") || args[i].startsWith("-X")) {
+                appOptions.add(args[i]);
+            } else if (args[i].startsWith("--") && options.containsKey(args[i].substring(2)) && i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                throw new IllegalArgumentException("Unknown option " + args[i] + ", expected one of " + options.keySet());
+            }
+        }
+        Path app = Paths.get(options.get("app")).toAbsolutePath();
+        int port = Integer.parseInt(options.get("port"));
+        int runs = Integer.parseInt(options.get("runs"));
+
+        Path dataDir = Files.createTempDirectory("startup-");
+        try {
+            byte[] template = LoadTest.generate(dataDir.resolve("template.xlsx"), -1);
+            byte[] content = LoadTest.generate(dataDir.resolve("content.xlsx"), Integer.parseInt(options.get("rows")));
+            // Columns are startup, first and second consolidation in milliseconds and RSS in megabytes
+            double[][] results = new double[runs][];
+            System.out.println(String.format("%-8s %12s %12s %12s %9s", "run", "startup ms", "first ms", "second ms", "RSS MB"));
+            for (int run = 0; run < runs; run++) {
+                Path appDir = dataDir.resolve("run-" + run);
+                Files.createDirectories(appDir.resolve("templates"));
+                Files.write(appDir.resolve("templates").resolve(TEMPLATE_NAME), template);
+                results[run] = measure(app, port, appDir, appOptions, content);
+                System.out.println(format(String.valueOf(run + 1), results[run]));
+            }
+            System.out.println(format("median", median(results)));
+            if (!options.get("out").isEmpty()) {
+                writeCsv(Paths.get(options.get("out")), options.get("label"), results);
+            }
+        } finally {
+            LoadTest.deleteRecursively(dataDir);
+        }
+    }
+
+    private static double[] measure(Path app, int port, Path appDir, List<String> appOptions, byte[] content) throws Exception {
+        try (AppProcess process = AppProcess.start(app, port, appDir, appOptions)) {
+            AppClient client = new AppClient(port);
+            Duration startup = process.awaitReady(client, "/api/template/list", Duration.ofSeconds(60));
+            double[] latencies = new double[2];
+            for (int i = 0; i < latencies.length; i++) {
+                long start = System.nanoTime();
+                client.sendExpectingSuccess(client.consolidate(TEMPLATE_NAME, "content-" + i + ".xlsx",
+                        AppClient.withComment(content, UUID.randomUUID().toString())));
+                latencies[i] = (System.nanoTime() - start) / 1e6;
+            }
+            long rss = process.getPeakRss();
+            return new double[]{startup.toNanos() / 1e6, latencies[0], latencies[1], rss < 0 ? Double.NaN : rss / (1024.0 * 1024)};
+        }
+    }
+
+    private static double[] median(double[][] results) {
+        double[] median = new double[results[0].length];
+        for (int column = 0; column < median.length; column++) {
+            double[] values = new double[results.length];
+            for (int run = 0; run < results.length; run++) {
+                values[run] = results[run][column];
+            }
+            Arrays.sort(values);
+            median[column] = values.length % 2 == 1 ? values[values.length / 2]
+                    : (values[values.length / 2 - 1] + values[values.length / 2]) / 2;
+        }
+        return median;
+    }
+
+    private static String format(String run, double[] result) {
+        return String.format("%-8s %12.1f %12.1f %12.1f %9s", run, result[0], result[1], result[2],
+                Double.isNaN(result[3]) ? "n/a" : String.format("%.0f", result[3]));
+    }
+
+    private static void writeCsv(Path out, String label, double[][] results) throws Exception {
+        boolean exists = Files.exists(out);
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out, StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            if (!exists) {
+                writer.println(CSV_HEADER);
+            }
+            for (int run = 0; run < results.length; run++) {
+                double[] result = results[run];
+                writer.println(String.format("%s,%d,%.1f,%.1f,%.1f,%s", label, run + 1, result[0], result[1], result[2],
+                        Double.isNaN(result[3]) ? "n/a" : String.format("%.0f", result[3])));
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.xlsx.validator.services;
+
+import org.openjdk.jmh.annotations.*;
+import org.xlsx.validator.benchmarks.WorkbookGenerator;
+import org.xlsx.validator.models.StoredFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost of storing an upload: streaming it to disk with the size check and content hash, then moving it into place.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class FileServiceBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    int rows;
+
+    private Path workDir;
+    private byte[] content;
+    private FileService fileService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("xlsx-benchmark");
+        Path contentPath = workDir.resolve("Content.xlsx");
+        WorkbookGenerator.writeContent(contentPath, rows);
+        content = Files.readAllBytes(contentPath);
+        Files.delete(contentPath);
+
+        fileService = new FileService();
+        fileService.MAX_UPLOAD_SIZE = Long.MAX_VALUE;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(workDir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public String writeFile() throws Exception {
+        StoredFile storedFile = fileService.writeFile(workDir.toString(), new ByteArrayInputStream(content), "Content.xlsx");
+        Files.delete(storedFile.getFile().toPath());
+        return storedFile.getContentHash();
+    }
+}
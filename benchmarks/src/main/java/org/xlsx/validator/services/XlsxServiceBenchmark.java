@@ -0,0 +1,135 @@
+package org.xlsx.validator.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.opentelemetry.api.OpenTelemetry;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.*;
+import org.xlsx.validator.benchmarks.WorkbookGenerator;
+import org.xlsx.validator.models.StoredFile;
+import org.xlsx.validator.streaming.ConsolidatedWorkbookWriter;
+import org.xlsx.validator.streaming.RowSpool;
+import org.xlsx.validator.streaming.SpooledFiles;
+import org.xlsx.validator.streaming.StreamingWorkbookReader;
+import org.xlsx.validator.validation.RowValidator;
+import org.xlsx.validator.validation.TemplateMetadata;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * End to end and per stage costs of consolidating one content file into a new consolidated workbook.
+ * Lives in the services package to configure {@link XlsxService} without a Quarkus container.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class XlsxServiceBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    int rows;
+
+    private Path workDir;
+    private Path contentPath;
+    private StoredFile contentFile;
+    private XlsxService xlsxService;
+    private TemplateMetadata template;
+    private RowSpool contentRows;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("xlsx-benchmark");
+        Path templatePath = workDir.resolve("Template.xlsx");
+        contentPath = workDir.resolve("Content.xlsx");
+        WorkbookGenerator.writeTemplate(templatePath);
+        WorkbookGenerator.writeContent(contentPath, rows);
+        contentFile = new StoredFile(contentPath.toFile(), Files.size(contentPath), null);
+
+        ConsolidationMetrics metrics = new ConsolidationMetrics();
+        metrics.registry = new SimpleMeterRegistry();
+        metrics.tracer = OpenTelemetry.noop().getTracer("benchmarks");
+        metrics.TEMP_DIR = workDir.toString();
+
+        xlsxService = new XlsxService();
+        xlsxService.metrics = metrics;
+        xlsxService.ROW_WINDOW = 500;
+        xlsxService.SHARED_STRINGS = false;
+        xlsxService.PARALLELISM = 0;
+        xlsxService.TEMP_DIR = workDir.toString();
+        xlsxService.init();
+        byte[] templateContent = Files.readAllBytes(templatePath);
+        template = xlsxService.parseTemplate(templatePath.toString(), templateContent, templatePath.toFile().lastModified(), DigestUtils.sha256Hex(templateContent));
+
+        // Parsed once, so that appending and validating can be measured without the parsing cost
+        contentRows = new RowSpool(workDir);
+        new StreamingWorkbookReader().read(contentPath, row -> {
+            if (row.getRowNum() >= template.getFirstDataRowNum()) {
+                contentRows.append(row);
+            }
+        });
+        contentRows.finish();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        contentRows.close();
+        xlsxService.shutdown();
+        try (Stream<Path> files = Files.walk(workDir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    // Parse, header check, validation, append and write of the consolidated workbook
+    @Benchmark
+    public long copyFileUsingTemplate() throws Exception {
+        Path consolidatedPath = workDir.resolve("Consolidated-" + UUID.randomUUID() + ".xlsx");
+        try (ConsolidatedWorkbookWriter consolidatedWriter = xlsxService.copyFileUsingTemplate(contentPath.toString(), consolidatedPath.toString(), template)) {
+            consolidatedWriter.commit();
+        }
+        long size = Files.size(consolidatedPath);
+        Files.delete(consolidatedPath);
+        return size;
+    }
+
+    // Streaming read of the content file with the header check and validation of every row
+    @Benchmark
+    public int parseContentFile() throws Exception {
+        try (SpooledFiles spooledFiles = xlsxService.spoolContentFiles(List.of(contentFile), template, new AtomicLong())) {
+            return spooledFiles.await().get(0).getRowCount();
+        }
+    }
+
+    // Copy of the cell values of already parsed rows into the consolidated sheet
+    @Benchmark
+    public int appendRows() throws Exception {
+        try (ConsolidatedWorkbookWriter consolidatedWriter = new ConsolidatedWorkbookWriter(template.getContent(), workDir.resolve("Consolidated.xlsx"), xlsxService.ROW_WINDOW, xlsxService.SHARED_STRINGS)) {
+            contentRows.replay(consolidatedWriter::append);
+            return consolidatedWriter.getNextRowNum();
+        }
+    }
+
+    // Data validation of already parsed rows
+    @Benchmark
+    public int validateRows() throws Exception {
+        int[] validRows = {0};
+        try (RowValidator validator = template.getValidationRules().newValidator()) {
+            contentRows.replay(row -> {
+                if (validator.isValidRow(row, template.getFirstDataRowNum())) {
+                    validRows[0]++;
+                }
+            });
+        }
+        return validRows[0];
+    }
+}